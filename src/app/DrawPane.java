@@ -2,6 +2,7 @@ package app;
 
 import app.UI_util.ColorLine;
 import app.UI_util.ColorPoint;
+import app.UI_util.StrokeCanvas;
 
 import javax.swing.*;
 import java.awt.*;
@@ -16,6 +17,9 @@ public class DrawPane extends JPanel {
     private final ArrayList<ArrayList<ColorPoint>> lastLines;
     private final ArrayList<ColorLine> lines = new ArrayList<>();
     private final ArrayList<ColorLine> removedLines = new ArrayList<>();
+    private final StrokeStream stream = new StrokeStream(lines);
+    // Shows lines, only used by ver 3
+    private final StrokeCanvas canvas = new StrokeCanvas(750, 500);
     private int size = 20;
     private Color color = Color.blue;
     private boolean rubber = false;
@@ -33,7 +37,8 @@ public class DrawPane extends JPanel {
         wordLabel.setBounds(275, 20, 300, 50);
         wordLabel.setFont(new Font(wordLabel.getFont().getName(), Font.PLAIN, 16));
         if (DrawandGuess.turn > 1) {
-            synchronized (DrawandGuess.currentRoom) {
+            DrawandGuess.currentRoom.lock.lock();
+            try {
                 int index = DrawandGuess.currentRoom.playerList.indexOf(DrawandGuess.self);
                 int prevPlayer = DrawandGuess.currentRoom.playerList.size()-1;
                 if (index != 0) {
@@ -42,6 +47,8 @@ public class DrawPane extends JPanel {
 
                 wordLabel.setText("Prev player guessed: " + DrawandGuess.currentRoom.playerList.get(prevPlayer)
                         .guessedList.get((DrawandGuess.turn)/2));
+            } finally {
+                DrawandGuess.currentRoom.lock.unlock();
             }
         }
         this.add(wordLabel);
@@ -56,7 +63,7 @@ public class DrawPane extends JPanel {
                 source.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
                 x = -1;
                 y = -1;
-                repaint();
+                moveBrush();
             }
 
             @Override
@@ -68,7 +75,7 @@ public class DrawPane extends JPanel {
         });
 
         submitButton.addActionListener(e -> {
-            DrawandGuess.self.drawingList.add(lines);
+            stream.submit();
             WhiteBoardGUI.moveToWait(this);
             WhiteBoardGUI.frame.setTitle("Waiting For Others to Finish");
         });
@@ -90,7 +97,7 @@ public class DrawPane extends JPanel {
                     source.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
                     x = -1;
                     y = -1;
-                    repaint();
+                    moveBrush();
                 }
 
                 @Override
@@ -113,7 +120,7 @@ public class DrawPane extends JPanel {
                     source.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
                     x = -1;
                     y = -1;
-                    repaint();
+                    moveBrush();
                 }
 
                 @Override
@@ -128,6 +135,7 @@ public class DrawPane extends JPanel {
                 if (ver == 3) {
                     removedLines.add(lines.get(lines.size()-1));
                     lines.remove(lines.size()-1);
+                    stream.undone();
                     nextButton.setEnabled(true);
                     if (lines.size() <= 0) {
                         backButton.setEnabled(false);
@@ -170,9 +178,9 @@ public class DrawPane extends JPanel {
                     y = e.getY() - size/2;
                     if (ver == 3) {
                         lines.add(new ColorLine(size, color.getRGB()));
-                        lines.get(lines.size()-1).x.add(x);
-                        lines.get(lines.size()-1).y.add(y);
+                        lines.get(lines.size()-1).add(x, y);
                         removedLines.clear();
+                        stream.start();
                     } else {
                         pointLines.add(new ArrayList<>());
                         pointLines.get(pointLines.size()-1).add(new ColorPoint(x, y, size, color.getRGB()));
@@ -181,8 +189,18 @@ public class DrawPane extends JPanel {
                     backButton.setEnabled(true);
                     nextButton.setEnabled(false);
 
+                    moveBrush();
                     repaint();
                 }
+
+                @Override
+                public void mouseReleased(MouseEvent e) {
+                    super.mouseReleased(e);
+                    if (ver == 3) {
+                        stream.endStroke();
+                        repaint();
+                    }
+                }
             });
 
             this.addMouseMotionListener(new MouseMotionAdapter() {
@@ -191,12 +209,13 @@ public class DrawPane extends JPanel {
                     x = e.getX() - size/2;
                     y = e.getY() - size/2;
                     if (ver == 3) {
-                        lines.get(lines.size()-1).x.add(x);
-                        lines.get(lines.size()-1).y.add(y);
+                        lines.get(lines.size()-1).add(x, y);
+                        canvas.repaintEnd(lines.get(lines.size()-1));
+                        moveBrush();
                     } else {
                         pointLines.get(pointLines.size()-1).add(new ColorPoint(x, y, size, color.getRGB()));
+                        repaint();
                     }
-                    repaint();
                 }
             });
 
@@ -234,7 +253,7 @@ public class DrawPane extends JPanel {
                 super.mouseMoved(e);
                 x = e.getX() - size/2;
                 y = e.getY() - size/2;
-                repaint();
+                moveBrush();
             }
         });
 
@@ -254,7 +273,7 @@ public class DrawPane extends JPanel {
                 source.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
                 x = -1;
                 y = -1;
-                repaint();
+                moveBrush();
             }
 
             @Override
@@ -286,7 +305,7 @@ public class DrawPane extends JPanel {
                 source.setCursor(Cursor.getPredefinedCursor(Cursor.E_RESIZE_CURSOR));
                 x = -1;
                 y = -1;
-                repaint();
+                moveBrush();
             }
 
             @Override
@@ -298,6 +317,11 @@ public class DrawPane extends JPanel {
         });
         this.add(sizeAdjust);
 
+        // Added last to be under the other components
+        if (ver == 3) {
+            canvas.setSource(() -> lines, null);
+            this.add(canvas);
+        }
 
     }
 
@@ -305,27 +329,14 @@ public class DrawPane extends JPanel {
     public void paint(Graphics g) {
         super.paint(g);
 
+        if (ver == 3) return;
+
         if (x != -1 && y != -1) {
             g.setColor(color);
             g.drawOval(x, y, size, size);
         }
 
-        if (ver == 3) {
-            Graphics2D g2 = (Graphics2D) g;
-            for (ColorLine line: lines) {
-                g.setColor(line.getColor());
-                g2.setColor(line.getColor());
-                g2.setStroke(new BasicStroke((float) (line.size*0.85)));
-                for (int i = 0; i < line.x.size(); i++) {
-                    if (i != line.x.size()-1) {
-                        g2.drawLine(line.x.get(i) + line.size/2, line.y.get(i)+ line.size/2,
-                                line.x.get(i+1)+ line.size/2, line.y.get(i+1)+ line.size/2);
-                    }
-                    g.fillOval(line.x.get(i), line.y.get(i), line.size, line.size);
-                }
-            }
-
-        } else if (ver == 1) {
+        if (ver == 1) {
             Graphics2D g2 = (Graphics2D) g;
             for (ArrayList<ColorPoint> line: pointLines) {
                 if (line.size() > 1) {
@@ -366,6 +377,14 @@ public class DrawPane extends JPanel {
 
     }
 
+    /**
+     * Show the brush where the mouse is, repainting only around it.
+     */
+    private void moveBrush() {
+        if (ver == 3) canvas.setBrush(x, y, size, color);
+        else repaint();
+    }
+
     public void removeFromList(int x, int y) {
         ArrayList<ColorPoint> removeList = new ArrayList<>();
         for (ColorPoint point: points) {
@@ -11,10 +11,14 @@ public class DrawandGuess {
     public static final InetSocketAddress LOBBY_SOCKET_ADDRESS = new InetSocketAddress(LOBBY_ADDRESS, LOBBY_PORT);
     public static final Player self = new Player();
     public static final Room currentRoom = new Room();
+    public static final GameSync sync = new GameSync();
+    public static final RoomSync roomSync = new RoomSync();
+    public static final GameEngine game = new GameEngine();
     public static Gson gson = new GsonBuilder().serializeNulls().create();
     public static final int PLAYER_TIMEOUT = 1500;
     public static final int ROOM_TIMEOUT = 1500;
-    public static int turn = 1;
+    // Only changed by the GameEngine
+    public static volatile int turn = 1;
 
     public static void main(String[] args) {
         WhiteBoardGUI.setUp();
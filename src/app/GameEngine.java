@@ -0,0 +1,292 @@
+package app;
+
+import app.UI_util.ColorLine;
+import srm.SrmEngine;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The core of the game: a single thread that owns the changes to the room and to this player,
+ * and the moves from one phase of the game to the next.
+ * Socket threads and the UI post events to it instead of changing the state themselves. It takes
+ * currentRoom.lock for each change, only so that the panes reading the state see it whole.
+ * The UI is updated with SwingUtilities.invokeLater, passing it values computed here,
+ * so that neither a dialog nor a repaint ever holds up the handling of room messages.
+ */
+public class GameEngine implements Runnable {
+    private final BlockingQueue<Runnable> events = new LinkedBlockingQueue<>();
+    private Thread thread;
+
+    // Only become the host after MAX_NO_HOST_COUNT times updates without a host.
+    private static final int MAX_NO_HOST_COUNT = 3;
+    private int noHostCount = 0;
+
+    private final TurnTracker tracker = new TurnTracker(this::nextTurn);
+
+    public synchronized void start() {
+        if (thread != null) return;
+        thread = SrmEngine.getInstance().newThread("game-engine", this);
+        thread.start();
+    }
+
+    /**
+     * Run a change to the game state on the engine thread, after the ones posted before it.
+     */
+    public void post(Runnable event) {
+        events.add(event);
+    }
+
+    /**
+     * A message received within the room.
+     */
+    public void post(GameEvent event) {
+        post(() -> onMessage(event));
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Runnable event;
+            try {
+                event = events.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                event.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void onMessage(GameEvent event) {
+        if (event.kind == GameEvent.Kind.BLOB_REQUEST) {
+            DrawandGuess.roomSync.onBlobRequest(event.hash);
+            return;
+        }
+        DrawandGuess.currentRoom.lock.lock();
+        try {
+            if (event.kind == GameEvent.Kind.ROOM || event.kind == GameEvent.Kind.BLOB) {
+                boolean current = event.kind == GameEvent.Kind.ROOM
+                        ? DrawandGuess.roomSync.onHeader(event.header)
+                        : DrawandGuess.roomSync.onBlob(event.hash, event.blob);
+                // Wait for the blobs the header names
+                if (!current) return;
+                DrawandGuess.currentRoom.changed.signalAll();
+                if (DrawandGuess.currentRoom.inGame && !DrawandGuess.self.inGame) startGame();
+                else tracker.checkComplete();
+            } else {
+                Player player = DrawandGuess.sync.receive(event);
+                DrawandGuess.currentRoom.changed.signalAll();
+                // A beacon changes nothing of its sender
+                if (player != null && event.kind != GameEvent.Kind.BEACON) tracker.update(player);
+            }
+        } finally {
+            DrawandGuess.currentRoom.lock.unlock();
+        }
+    }
+
+    private void startGame() {
+        DrawandGuess.self.lock.lock();
+        try {
+            DrawandGuess.self.inGame = true;
+        } finally {
+            DrawandGuess.self.lock.unlock();
+        }
+        DrawandGuess.sync.publish(GameEvent.inGameChanged(true));
+        SwingUtilities.invokeLater(() -> {
+            WhiteBoardGUI.redirectTo(WhiteBoardGUI.waitingRoom, WhiteBoardGUI.drawPane);
+            WhiteBoardGUI.frame.setTitle("Drawing Phase");
+        });
+        askStartingWord();
+        tracker.begin(DrawandGuess.self.round, DrawandGuess.turn);
+    }
+
+    /**
+     * Let the player pick a starting word, without waiting for the answer.
+     */
+    private void askStartingWord() {
+        int index = DrawandGuess.currentRoom.playerList.indexOf(DrawandGuess.self);
+        List<String> words = List.copyOf(DrawandGuess.currentRoom.initWords.get(index));
+        SwingUtilities.invokeLater(() -> {
+            String initWord = (String) JOptionPane.showInputDialog(null,
+                    "Select starting word",
+                    "Starting word",
+                    JOptionPane.QUESTION_MESSAGE, null,
+                    words.toArray(),
+                    words.get(0));
+            String chosen = initWord != null ? initWord : words.get(0);
+            post(() -> guessSubmitted(chosen));
+            WhiteBoardGUI.setPrevWord("Starting word: " + chosen);
+        });
+    }
+
+    /**
+     * This player's guess, or starting word, is done.
+     */
+    public void guessSubmitted(String guess) {
+        DrawandGuess.currentRoom.lock.lock();
+        try {
+            DrawandGuess.self.guessedList.add(guess);
+            DrawandGuess.sync.publish(GameEvent.guessSubmitted(DrawandGuess.self.guessedList.size() - 1, guess));
+            tracker.update(DrawandGuess.self);
+        } finally {
+            DrawandGuess.currentRoom.lock.unlock();
+        }
+    }
+
+    /**
+     * This player's drawing is done, all its strokes were already streamed.
+     */
+    public void drawingSubmitted(int index, ArrayList<ColorLine> drawing) {
+        DrawandGuess.currentRoom.lock.lock();
+        try {
+            DrawandGuess.self.drawingList.add(drawing);
+            DrawandGuess.self.sketch = new ArrayList<>();
+            DrawandGuess.sync.publish(GameEvent.drawingSubmitted(index));
+            tracker.update(DrawandGuess.self);
+        } finally {
+            DrawandGuess.currentRoom.lock.unlock();
+        }
+    }
+
+    /**
+     * This player is ready, or no longer.
+     */
+    public void toggleReady() {
+        DrawandGuess.self.ready = !DrawandGuess.self.ready;
+        DrawandGuess.sync.publish(GameEvent.readyChanged(DrawandGuess.self.ready));
+    }
+
+    /**
+     * Become the host once the host has been gone for MAX_NO_HOST_COUNT checks in a row,
+     * if first in the room. Posted by the InRoomAdvertiseThread with each beacon.
+     */
+    public void checkHost() {
+        DrawandGuess.currentRoom.lock.lock();
+        try {
+            if (DrawandGuess.currentRoom.playerList.size() > 0
+                    && !DrawandGuess.currentRoom.playerList.contains(DrawandGuess.currentRoom.host)
+                    && DrawandGuess.currentRoom.playerList.get(0).equals(DrawandGuess.self)) {
+                noHostCount++;
+                if (noHostCount >= MAX_NO_HOST_COUNT) {
+                    DrawandGuess.self.lock.lock();
+                    try {
+                        DrawandGuess.self.isHost = true;
+                        DrawandGuess.self.ready = true;
+                        DrawandGuess.self.changed.signalAll();
+                    } finally {
+                        DrawandGuess.self.lock.unlock();
+                    }
+                    DrawandGuess.sync.publish(GameEvent.hostChanged(true));
+                    DrawandGuess.sync.publish(GameEvent.readyChanged(true));
+                    DrawandGuess.currentRoom.host = DrawandGuess.self;
+                    DrawandGuess.currentRoom.changed.signalAll();
+                }
+            } else noHostCount = 0;
+        } finally {
+            DrawandGuess.currentRoom.lock.unlock();
+        }
+    }
+
+    /**
+     * As host, start the game with the players in the room.
+     */
+    public void startRequested() {
+        DrawandGuess.currentRoom.lock.lock();
+        try {
+            DrawandGuess.currentRoom.generateInitWords();
+            DrawandGuess.roomSync.initWordsChanged();
+            DrawandGuess.currentRoom.numPlayers = DrawandGuess.currentRoom.playerList.size();
+            DrawandGuess.currentRoom.inGame = true;
+        } finally {
+            DrawandGuess.currentRoom.lock.unlock();
+        }
+    }
+
+    /**
+     * Everyone is done with the turn, called once for it by the tracker. Must be called holding currentRoom.lock.
+     */
+    private void nextTurn() {
+        // end of round
+        if (DrawandGuess.turn == DrawandGuess.currentRoom.numTurn) {
+            if (DrawandGuess.self.isHost) {
+                DrawandGuess.currentRoom.generateInitWords();
+                DrawandGuess.roomSync.initWordsChanged();
+            }
+            SwingUtilities.invokeLater(() -> {
+                WhiteBoardGUI.showPane = new ShowPane();
+                WhiteBoardGUI.redirectTo(WhiteBoardGUI.wait, WhiteBoardGUI.showPane);
+                WhiteBoardGUI.frame.setTitle("Showing Results");
+                DrawandGuess.currentRoom.lock.lock();
+                try {
+                    WhiteBoardGUI.showPane.showing(() -> post(this::afterShowing));
+                } finally {
+                    DrawandGuess.currentRoom.lock.unlock();
+                }
+            });
+        } else {
+            // even turn guess
+            boolean draw = DrawandGuess.turn % 2 == 0;
+            SwingUtilities.invokeLater(() -> {
+                if (draw) {
+                    WhiteBoardGUI.drawPane = new DrawPane();
+                    WhiteBoardGUI.redirectTo(WhiteBoardGUI.wait, WhiteBoardGUI.drawPane);
+                    WhiteBoardGUI.frame.setTitle("Drawing Phase");
+                } else {
+                    WhiteBoardGUI.guessPane = new GuessPane();
+                    WhiteBoardGUI.redirectTo(WhiteBoardGUI.wait, WhiteBoardGUI.guessPane);
+                    WhiteBoardGUI.frame.setTitle("Guessing Phase");
+                }
+            });
+        }
+        DrawandGuess.turn++;
+        // Nothing to wait for while the results are shown
+        if (DrawandGuess.turn <= DrawandGuess.currentRoom.numTurn) {
+            tracker.begin(DrawandGuess.self.round, DrawandGuess.turn);
+        }
+    }
+
+    /**
+     * Once the results are shown, end the game or start the next round.
+     */
+    private void afterShowing() {
+        DrawandGuess.currentRoom.lock.lock();
+        try {
+            DrawandGuess.self.lock.lock();
+            try {
+                if (DrawandGuess.self.round == DrawandGuess.currentRoom.numRounds) {
+                    DrawandGuess.self.round++;
+                    DrawandGuess.sync.publish(GameEvent.roundChanged(DrawandGuess.self.round, false));
+                    SwingUtilities.invokeLater(() -> {
+                        WhiteBoardGUI.redirectTo(WhiteBoardGUI.showPane, WhiteBoardGUI.end);
+                        WhiteBoardGUI.frame.setTitle("Thanks For Playing");
+                    });
+                } else {
+                    // The turn was already moved past the last one when the replay started
+                    DrawandGuess.turn = 1;
+                    DrawandGuess.self.round++;
+                    DrawandGuess.self.guessedList.clear();
+                    DrawandGuess.self.drawingList.clear();
+                    DrawandGuess.sync.publish(GameEvent.roundChanged(DrawandGuess.self.round, true));
+                    SwingUtilities.invokeLater(() -> {
+                        WhiteBoardGUI.drawPane = new DrawPane();
+                        WhiteBoardGUI.redirectTo(WhiteBoardGUI.showPane, WhiteBoardGUI.drawPane);
+                        WhiteBoardGUI.frame.setTitle("Drawing Phase");
+                    });
+                    askStartingWord();
+                    tracker.begin(DrawandGuess.self.round, DrawandGuess.turn);
+                }
+            } finally {
+                DrawandGuess.self.lock.unlock();
+            }
+        } finally {
+            DrawandGuess.currentRoom.lock.unlock();
+        }
+    }
+}
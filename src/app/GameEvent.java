@@ -0,0 +1,211 @@
+package app;
+
+import app.UI_util.ColorLine;
+import com.google.gson.Gson;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * A message multicast within a room.
+ * Changes to a player are sent once each, as an event numbered by a per-player version,
+ * instead of the whole player object every second. Only the fields of the event's kind are set.
+ */
+public class GameEvent {
+    public enum Kind {
+        // Liveness, with the version applied of every player known to the sender.
+        BEACON,
+        // The whole player, sent on joining and whenever a member is found behind.
+        SYNC,
+        // The header of the room, sent by the host only.
+        ROOM,
+        // Content named by a room header, and a request for it.
+        BLOB,
+        BLOB_REQUEST,
+        READY_CHANGED,
+        HOST_CHANGED,
+        IN_GAME_CHANGED,
+        ROUND_CHANGED,
+        GUESS_SUBMITTED,
+        // Points added to the drawing in progress, or strokes undone, see StrokeStream.
+        STROKE,
+        // The drawing in progress is done, its strokes were all sent as STROKE before.
+        DRAWING_SUBMITTED
+    }
+
+    // Nulls are left out, as each kind only uses a few fields.
+    private static final Gson gson = new Gson();
+
+    public Kind kind;
+    public String player;
+    // Events of a player are numbered from 1, SYNC carries the version it reflects.
+    public long version;
+
+    public Map<String, Long> versions;
+    public Player state;
+    public RoomSync.Header header;
+    public String hash;
+    public String blob;
+    public Boolean value;
+    public Integer round;
+    // Position of the guess or drawing in the player's list.
+    public Integer index;
+    public String guess;
+    // Position of the stroke in the drawing, of the segment's first point in the stroke,
+    // and number of strokes left after an undo.
+    public Integer stroke;
+    public Integer offset;
+    public Integer strokes;
+    public ColorLine segment;
+    // Set on the last segment of a stroke, to simplify it with.
+    public Double tolerance;
+
+    private GameEvent(Kind kind) {
+        this.kind = kind;
+    }
+
+    public static GameEvent beacon(Map<String, Long> versions) {
+        GameEvent e = new GameEvent(Kind.BEACON);
+        e.versions = versions;
+        return e;
+    }
+
+    public static GameEvent sync(Player state) {
+        GameEvent e = new GameEvent(Kind.SYNC);
+        e.state = state;
+        return e;
+    }
+
+    public static GameEvent room(RoomSync.Header header) {
+        GameEvent e = new GameEvent(Kind.ROOM);
+        e.header = header;
+        return e;
+    }
+
+    public static GameEvent blob(String hash, String content) {
+        GameEvent e = new GameEvent(Kind.BLOB);
+        e.hash = hash;
+        e.blob = content;
+        return e;
+    }
+
+    public static GameEvent blobRequest(String hash) {
+        GameEvent e = new GameEvent(Kind.BLOB_REQUEST);
+        e.hash = hash;
+        return e;
+    }
+
+    public static GameEvent readyChanged(boolean ready) {
+        GameEvent e = new GameEvent(Kind.READY_CHANGED);
+        e.value = ready;
+        return e;
+    }
+
+    public static GameEvent hostChanged(boolean isHost) {
+        GameEvent e = new GameEvent(Kind.HOST_CHANGED);
+        e.value = isHost;
+        return e;
+    }
+
+    public static GameEvent inGameChanged(boolean inGame) {
+        GameEvent e = new GameEvent(Kind.IN_GAME_CHANGED);
+        e.value = inGame;
+        return e;
+    }
+
+    /**
+     * @param cleared whether the guesses and drawings of the previous round were cleared
+     */
+    public static GameEvent roundChanged(int round, boolean cleared) {
+        GameEvent e = new GameEvent(Kind.ROUND_CHANGED);
+        e.round = round;
+        e.value = cleared;
+        return e;
+    }
+
+    public static GameEvent guessSubmitted(int index, String guess) {
+        GameEvent e = new GameEvent(Kind.GUESS_SUBMITTED);
+        e.index = index;
+        e.guess = guess;
+        return e;
+    }
+
+    public static GameEvent stroke(int index, int stroke, int offset, ColorLine segment) {
+        GameEvent e = new GameEvent(Kind.STROKE);
+        e.index = index;
+        e.stroke = stroke;
+        e.offset = offset;
+        e.segment = segment;
+        return e;
+    }
+
+    public static GameEvent strokeEnded(int index, int stroke, int offset, ColorLine segment, double tolerance) {
+        GameEvent e = stroke(index, stroke, offset, segment);
+        e.tolerance = tolerance;
+        return e;
+    }
+
+    public static GameEvent strokesUndone(int index, int strokes) {
+        GameEvent e = new GameEvent(Kind.STROKE);
+        e.index = index;
+        e.strokes = strokes;
+        return e;
+    }
+
+    public static GameEvent drawingSubmitted(int index) {
+        GameEvent e = new GameEvent(Kind.DRAWING_SUBMITTED);
+        e.index = index;
+        return e;
+    }
+
+    /**
+     * Apply this event to the sender's player object. Guesses, drawings and strokes are set at their index,
+     * so applying an event again, e.g. after a SYNC that already reflected it, changes nothing.
+     */
+    public void applyTo(Player p) {
+        switch (kind) {
+            case READY_CHANGED -> p.ready = value;
+            case HOST_CHANGED -> p.isHost = value;
+            case IN_GAME_CHANGED -> p.inGame = value;
+            case ROUND_CHANGED -> {
+                p.round = round;
+                if (value) {
+                    p.guessedList.clear();
+                    p.drawingList.clear();
+                    p.sketch = new ArrayList<>();
+                }
+            }
+            case GUESS_SUBMITTED -> setAt(p.guessedList, index, guess);
+            case STROKE -> {
+                if (index == p.drawingList.size()) StrokeAssembler.apply(p.sketch, this);
+            }
+            case DRAWING_SUBMITTED -> {
+                if (index == p.drawingList.size()) {
+                    p.drawingList.add(p.sketch);
+                    p.sketch = new ArrayList<>();
+                }
+            }
+            default -> { }
+        }
+    }
+
+    private static <T> void setAt(ArrayList<T> list, int index, T item) {
+        if (index < list.size()) list.set(index, item);
+        else if (index == list.size()) list.add(item);
+    }
+
+    public byte[] toBytes() {
+        return gson.toJson(this).getBytes();
+    }
+
+    public static GameEvent parse(byte[] data, int length) {
+        return gson.fromJson(new String(data, 0, length), GameEvent.class);
+    }
+
+    /**
+     * A detached copy of a player, taken while the player may still be changed by the UI.
+     */
+    public static Player copyOf(Player p) {
+        return gson.fromJson(gson.toJson(p, Player.class), Player.class);
+    }
+}
@@ -0,0 +1,152 @@
+package app;
+
+import javax.swing.*;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the players of the room in sync through GameEvents.
+ * Local changes to DrawandGuess.self are published as numbered events, sent by the InRoomAdvertiseThread.
+ * Events received are applied to the players of currentRoom in version order, holding back those after a gap.
+ * A member whose beacon shows it behind by more than a beacon period, e.g. because it joined late,
+ * is brought up to date with a SYNC of the whole player.
+ */
+public class GameSync {
+
+    private static class Peer {
+        final Player player = new Player();
+        long applied = 0;
+        final TreeMap<Long, GameEvent> pending = new TreeMap<>();
+    }
+
+    private final BlockingQueue<GameEvent> outgoing = new LinkedBlockingQueue<>();
+    // Own version, and the one announced with the last beacon. Guarded by this.
+    private long version = 0;
+    private long announced = 0;
+    // A SYNC is sent first thing in a room, then whenever a member is found behind.
+    private volatile boolean syncWanted = true;
+    // Players heard of, by name. Kept after a player times out, so that it is restored as it was if it comes back.
+    // Guarded by currentRoom.lock.
+    private final Map<String, Peer> peers = new HashMap<>();
+
+    /**
+     * Number an event after a change to DrawandGuess.self, and queue it for sending.
+     */
+    public synchronized void publish(GameEvent event) {
+        event.player = DrawandGuess.self.name;
+        event.version = ++version;
+        outgoing.add(event);
+    }
+
+    /**
+     * Queue a message that is not a change to DrawandGuess.self, e.g. about the room, for sending unnumbered.
+     */
+    public void post(GameEvent event) {
+        event.player = DrawandGuess.self.name;
+        outgoing.add(event);
+    }
+
+    /**
+     * @return the next event to send, null if none within the timeout
+     */
+    public GameEvent poll(long millis) throws InterruptedException {
+        return outgoing.poll(Math.max(millis, 0), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue a SYNC of DrawandGuess.self for sending if one is wanted.
+     * The copy is taken on the Swing event thread, which adds to the sketch being drawn,
+     * holding currentRoom.lock, under which the GameEngine changes the rest.
+     */
+    public void queueSyncIfWanted() {
+        if (!syncWanted) return;
+        syncWanted = false;
+        SwingUtilities.invokeLater(() -> {
+            DrawandGuess.currentRoom.lock.lock();
+            try {
+                GameEvent e = GameEvent.sync(GameEvent.copyOf(DrawandGuess.self));
+                synchronized (this) {
+                    e.player = DrawandGuess.self.name;
+                    e.version = version;
+                    outgoing.add(e);
+                }
+            } finally {
+                DrawandGuess.currentRoom.lock.unlock();
+            }
+        });
+    }
+
+    public GameEvent beacon() {
+        Map<String, Long> versions = new HashMap<>();
+        DrawandGuess.currentRoom.lock.lock();
+        try {
+            peers.forEach((name, peer) -> versions.put(name, peer.applied));
+        } finally {
+            DrawandGuess.currentRoom.lock.unlock();
+        }
+        GameEvent e = GameEvent.beacon(versions);
+        synchronized (this) {
+            e.player = DrawandGuess.self.name;
+            e.version = version;
+            announced = version;
+        }
+        return e;
+    }
+
+    /**
+     * Apply an event received, other than about the room, to the sender's player, adding it back to the room if needed.
+     * Must be called holding currentRoom.lock.
+     * @return the sender's player, or null if the event has no sender
+     */
+    public Player receive(GameEvent e) {
+        if (e.player == null) return null;
+        Peer peer = peers.computeIfAbsent(e.player, name -> {
+            Peer p = new Peer();
+            p.player.name = name;
+            return p;
+        });
+        switch (e.kind) {
+            case BEACON -> {
+                Long applied = e.versions != null ? e.versions.get(DrawandGuess.self.name) : null;
+                synchronized (this) {
+                    if ((applied == null ? 0 : applied) < announced) syncWanted = true;
+                }
+            }
+            case SYNC -> {
+                if (e.state != null && e.version >= peer.applied) {
+                    peer.player.isHost = e.state.isHost;
+                    peer.player.ready = e.state.ready;
+                    peer.player.inGame = e.state.inGame;
+                    peer.player.round = e.state.round;
+                    peer.player.guessedList = e.state.guessedList;
+                    peer.player.drawingList = e.state.drawingList;
+                    peer.player.sketch = e.state.sketch != null ? e.state.sketch : new ArrayList<>();
+                    peer.applied = e.version;
+                    peer.pending.headMap(e.version, true).clear();
+                }
+            }
+            default -> {
+                if (e.version > peer.applied) peer.pending.put(e.version, e);
+            }
+        }
+        GameEvent next;
+        while ((next = peer.pending.remove(peer.applied + 1)) != null) {
+            next.applyTo(peer.player);
+            peer.applied++;
+        }
+
+        peer.player.lastActive = Instant.now().toEpochMilli();
+        if (!DrawandGuess.currentRoom.playerList.contains(peer.player)) {
+            DrawandGuess.currentRoom.playerList.add(peer.player);
+            Collections.sort(DrawandGuess.currentRoom.playerList);
+        }
+        return peer.player;
+    }
+}
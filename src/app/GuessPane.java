@@ -2,11 +2,13 @@ package app;
 
 import app.UI_util.ColorLine;
 import app.UI_util.MyMouseAdapter;
+import app.UI_util.StrokeCanvas;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.List;
 
 public class GuessPane extends JPanel {
     private final JTextField guessWord;
@@ -40,7 +42,8 @@ public class GuessPane extends JPanel {
         submitButton.addActionListener(e -> {
             int result = JOptionPane.showConfirmDialog(null, "You guessed: " + guessWord.getText(), "Title", JOptionPane.YES_NO_OPTION, JOptionPane.INFORMATION_MESSAGE);
             if (result == 0) {
-                DrawandGuess.self.guessedList.add(guessWord.getText());
+                String guess = guessWord.getText();
+                DrawandGuess.game.post(() -> DrawandGuess.game.guessSubmitted(guess));
                 WhiteBoardGUI.moveToWait(this);
                 WhiteBoardGUI.frame.setTitle("Waiting For Others to Finish");
             }
@@ -48,39 +51,28 @@ public class GuessPane extends JPanel {
 
         this.add(guessWord);
         this.add(submitButton);
-    }
-
-    public void paint(Graphics g) {
 
-        super.paint(g);
+        StrokeCanvas canvas = new StrokeCanvas(750, 500);
+        canvas.setSource(GuessPane::drawingToGuess, DrawandGuess.currentRoom.lock);
+        this.add(canvas);
+    }
 
-        Graphics2D g2 = (Graphics2D) g;
-        synchronized (DrawandGuess.currentRoom) {
-            int index = DrawandGuess.currentRoom.playerList.indexOf(DrawandGuess.self);
-            int prevPlayer = DrawandGuess.currentRoom.playerList.size()-1;
-            if (index != 0) {
-                prevPlayer = index - 1;
-            }
+    /**
+     * @return the drawing to guess, made by the previous player on the last turn. Must hold currentRoom.lock.
+     */
+    private static List<ColorLine> drawingToGuess() {
+        int index = DrawandGuess.currentRoom.playerList.indexOf(DrawandGuess.self);
+        int prevPlayer = DrawandGuess.currentRoom.playerList.size()-1;
+        if (index != 0) {
+            prevPlayer = index - 1;
+        }
 
-            if (prevPlayer >= 0) {
-                if (DrawandGuess.currentRoom.playerList.get(prevPlayer).drawingList.size() > 0) {
-                    for (ColorLine line : DrawandGuess.currentRoom.playerList.get(prevPlayer)
-                            .drawingList.get((DrawandGuess.turn - 1) / 2)) {
-                        g.setColor(line.getColor());
-                        g2.setColor(line.getColor());
-                        g2.setStroke(new BasicStroke((float) (line.size * 0.85)));
-                        for (int i = 0; i < line.x.size(); i++) {
-                            if (i != line.x.size() - 1) {
-                                g2.drawLine(line.x.get(i) + line.size / 2, line.y.get(i) + line.size / 2,
-                                        line.x.get(i + 1) + line.size / 2, line.y.get(i + 1) + line.size / 2);
-                            }
-                            g.fillOval(line.x.get(i), line.y.get(i), line.size, line.size);
-                        }
-                    }
-                }
+        if (prevPlayer >= 0) {
+            if (DrawandGuess.currentRoom.playerList.get(prevPlayer).drawingList.size() > 0) {
+                return DrawandGuess.currentRoom.playerList.get(prevPlayer).drawingList
+                        .get((DrawandGuess.turn - 1) / 2);
             }
         }
+        return List.of();
     }
-
-
 }
@@ -3,20 +3,14 @@ package app;
 import app.UI_util.MyMouseAdapter;
 import app.UI_util.RoomRenderer;
 import app.socket_threads.lobby_group.InLobbyReceiveThread;
+import srm.SrmEngine;
 
 import javax.swing.*;
 import java.awt.*;
-import java.time.Duration;
-import java.time.Instant;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 public class LobbyPane extends JPanel {
-    private final DefaultListModel<Room> dlm = new DefaultListModel<>();
-    private final ConcurrentMap<Room, Instant> roomsLastUpdated = new ConcurrentHashMap<>();
-    private final JList<Room> roomList = new JList<>(dlm);
+    private final RoomDirectory directory = new RoomDirectory();
+    private final JList<Room> roomList = new JList<>(directory);
     private final JTextField searchBar;
     private final JButton searchButton;
     private final InLobbyReceiveThread thread;
@@ -26,8 +20,8 @@ public class LobbyPane extends JPanel {
         super();
         this.setLayout(null);
 
-        thread = new InLobbyReceiveThread(roomsLastUpdated);
-        thread.start();
+        thread = new InLobbyReceiveThread(directory);
+        SrmEngine.getInstance().newThread("lobby-receive", thread).start();
         roomList.setCellRenderer(new RoomRenderer());
 
         JScrollPane sp = new JScrollPane(roomList, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED, JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
@@ -65,19 +59,11 @@ public class LobbyPane extends JPanel {
         searchButton.addActionListener(e -> {
             searchButton.setEnabled(false);
             refresh();
-            dlm.removeAllElements();
-            synchronized (roomsLastUpdated) {
-                for (Room room: roomsLastUpdated.keySet()) {
-                    if (room.roomName.contains(searchBar.getText())) {
-                        dlm.addElement(room);
-                    }
-                }
-            }
+            directory.search(searchBar.getText());
             searchButton.setEnabled(true);
         });
 
-        // Refresh works by sharing a concurrent map with the socket thread,
-        // only when the refresh button is pressed, does the UI retrieve contents from the map.
+        // The list follows the rooms advertised by itself, refresh only applies the latest ones at once.
         refreshButton = new JButton("Refresh");
         refreshButton.setBounds(480, 45, 80, 30);
         refreshButton.addMouseListener(new MyMouseAdapter(Cursor.HAND_CURSOR));
@@ -118,10 +104,13 @@ public class LobbyPane extends JPanel {
         DrawandGuess.self.isHost = true;
         DrawandGuess.self.ready = true;
         thread.interrupted = true;
-        synchronized (DrawandGuess.currentRoom) {
+        DrawandGuess.currentRoom.lock.lock();
+        try {
             DrawandGuess.currentRoom.host = DrawandGuess.self;
             DrawandGuess.currentRoom.roomName = roomName;
             DrawandGuess.currentRoom.numRounds = numRounds;
+        } finally {
+            DrawandGuess.currentRoom.lock.unlock();
         }
 
         WhiteBoardGUI.redirectTo(this, WhiteBoardGUI.waitingRoom);
@@ -135,12 +124,15 @@ public class LobbyPane extends JPanel {
      */
     private void joinRoom(Room room) {
         if (room != null) {
-            synchronized (DrawandGuess.currentRoom) {
+            DrawandGuess.currentRoom.lock.lock();
+            try {
                 DrawandGuess.currentRoom.host = room.host;
                 DrawandGuess.currentRoom.roomName = room.roomName;
                 DrawandGuess.currentRoom.numRounds = room.numRounds;
                 DrawandGuess.currentRoom.IP = room.IP;
                 DrawandGuess.currentRoom.port = room.port;
+            } finally {
+                DrawandGuess.currentRoom.lock.unlock();
             }
             DrawandGuess.self.isHost = false;
             thread.interrupted = true;
@@ -150,17 +142,23 @@ public class LobbyPane extends JPanel {
         }
     }
 
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        directory.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        directory.stop();
+        super.removeNotify();
+    }
+
     /**
-     * Refresh the current room list to eliminate any inactive rooms
+     * Refresh the current room list with the latest advertisements, eliminating any inactive rooms.
+     * Must be called on the Swing event thread.
      */
     public void refresh() {
-        Instant now = Instant.now();
-        dlm.removeAllElements();
-        Set<Map.Entry<Room, Instant>> entrySet = roomsLastUpdated.entrySet();
-        for (Map.Entry<Room, Instant> entry: entrySet) {
-            if (Duration.between(entry.getValue(), now).toMillis() < DrawandGuess.ROOM_TIMEOUT) {
-                dlm.addElement(entry.getKey());
-            } else roomsLastUpdated.remove(entry.getKey());
-        }
+        directory.update();
     }
 }
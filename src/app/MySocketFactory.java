@@ -1,26 +1,41 @@
 package app;
 
-import srm.ReliableMulticastSocket;
+import srm.DataCache;
+import srm.SrmChannel;
+import srm.SrmEngine;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 
 public class MySocketFactory {
     /**
-     * Construct a reliable multicast socket and join a specified multicast group.
-     * If this socket joins any other multicast group, the port number of that group MUST match with this socket's port.
-     * @param IP Inet address of the multicast group to join. If left null, this socket won't join any group.
-     * @param port The port number of this Socket. Any multicast groups this socket joins in the future must share the
-     *             same port number.
+     * Open a reliable multicast channel on a multicast group.
+     * All channels of the same group within this process share one SRM stack, so opening one
+     * for sending and another for receiving does not duplicate sockets, timers or threads.
+     * @param IP Inet address of the multicast group.
+     * @param port The port number of the multicast group.
+     * @param role Whether the caller sends, receives or both on the channel.
      */
-    public static ReliableMulticastSocket newInstance(String IP, int port) {
-        ReliableMulticastSocket socket = null;
+    public static SrmChannel newInstance(String IP, int port, SrmChannel.Role role) {
+        SrmChannel channel = null;
         try {
-            socket = new ReliableMulticastSocket(port);
-            if (IP != null) socket.joinGroup(new InetSocketAddress(IP, port), null);
+            channel = SrmEngine.getInstance().open(new InetSocketAddress(IP, port), role);
         } catch (IOException e) {
-            System.err.println("Joining an already joined group.");// Nothing to worry about.
+            System.err.println("Cannot join the group " + IP + ":" + port + ".");
         }
-        return socket;
+        return channel;
+    }
+
+    /**
+     * Same as above, with a bounded delivery queue configured on the channel.
+     * @param capacity Maximum number of received messages waiting to be consumed.
+     * @param overflow What to do with a new message once the queue is full.
+     * @param coalesce Keep only the latest unconsumed message per sender, for beacon-style traffic.
+     */
+    public static SrmChannel newInstance(String IP, int port, SrmChannel.Role role, int capacity,
+                                         DataCache.Overflow overflow, boolean coalesce) {
+        SrmChannel channel = newInstance(IP, port, role);
+        if (channel != null) channel.setDeliveryQueue(capacity, overflow, coalesce);
+        return channel;
     }
 }
@@ -5,6 +5,8 @@ import app.UI_util.ColorLine;
 
 import java.util.ArrayList;
 import java.util.Objects;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A player in the game.
@@ -20,8 +22,14 @@ public class Player implements Comparable<Player> {
     public Long lastActive;
     public ArrayList<String> guessedList = new ArrayList<>();
     public ArrayList<ArrayList<ColorLine>> drawingList = new ArrayList<>();
+    // The drawing in progress, streamed stroke by stroke until submitted.
+    public ArrayList<ColorLine> sketch = new ArrayList<>();
     public boolean inGame = false;
     public int round = 1;
+    // Guards this player between socket threads and the UI, see Room.lock.
+    public final transient ReentrantLock lock = new ReentrantLock();
+    // Signalled whenever this player changes, e.g. becomes the host.
+    public final transient Condition changed = lock.newCondition();
 
     @Override
     public boolean equals(Object o) {
@@ -4,6 +4,8 @@ import java.util.ArrayList;
 import java.util.Objects;
 import java.util.Random;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A room that keeps all the information of the game itself and all users inside.
@@ -24,6 +26,13 @@ public class Room {
     public ArrayList<ArrayList<String>> initWords = new ArrayList<>();
     public boolean inGame = false;
     public int numPlayers = 1;
+    // Bumped by the host whenever the room changes, see RoomSync.
+    public long version = 0;
+    // Guards the room between socket threads and the UI. A lock rather than the object's monitor,
+    // so that socket threads waiting on it, virtual ones included, do not hold on to a carrier thread.
+    public final transient ReentrantLock lock = new ReentrantLock();
+    // Signalled whenever the room changes.
+    public final transient Condition changed = lock.newCondition();
 
     public Room() {
         this.port = new Random().nextInt(10000) + 9000;
@@ -54,31 +63,31 @@ public class Room {
         return Objects.hash(host.name);
     }
 
-    public InetSocketAddress getAddress() { return new InetSocketAddress(IP, port); }
-
-    public boolean allDone() {
-        int turn = DrawandGuess.turn;
-        if (playerList.size() < numPlayers) {
-            return false;
+    /**
+     * A copy of this room to advertise in the lobby, without the dictionary, the initial words
+     * and the players' guesses and drawings. Must be called holding the lock.
+     */
+    public Room summary() {
+        Room r = new Room();
+        r.host = new Player();
+        r.host.name = host.name;
+        r.IP = IP;
+        r.port = port;
+        r.roomName = roomName;
+        r.numRounds = numRounds;
+        r.inGame = inGame;
+        r.numPlayers = numPlayers;
+        r.version = version;
+        for (Player player : playerList) {
+            Player p = new Player();
+            p.name = player.name;
+            r.playerList.add(p);
         }
-        for (Player player: playerList) {
-            if (player.round < DrawandGuess.self.round) {
-                return false;
-            }
-            // guess on even turn
-            if (turn % 2 == 0) {
-                if (player.guessedList.size() < (turn + 2) / 2) {
-                    return false;
-                }
-            } else {
-                if (player.drawingList.size() < (turn + 1) / 2) {
-                    return false;
-                }
-            }
-        }
-        return true;
+        return r;
     }
 
+    public InetSocketAddress getAddress() { return new InetSocketAddress(IP, port); }
+
     public void generateInitWords() {
         Random random = new Random();
         int num = 3 * playerList.size();
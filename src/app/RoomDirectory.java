@@ -0,0 +1,238 @@
+package app;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The rooms advertised in the lobby, and the list model of those matching the search.
+ * The receive thread only records the latest advertisement of each room, and a Swing timer applies them
+ * every TICK, so that thousands of rooms advertising cost one pass per tick rather than one event each.
+ * Everything else is only touched on the Swing event thread:
+ * - rooms expire through a timer wheel, a room being only looked at when its slot comes round;
+ * - room names are indexed by their trigrams, so a search only checks the rooms sharing them all;
+ * - the list is changed room by room, firing events for the rows changed only.
+ */
+public class RoomDirectory extends AbstractListModel<Room> {
+    private static final int TICK = 250;
+    private static final int SLOTS = DrawandGuess.ROOM_TIMEOUT / TICK + 2;
+
+    private static class Entry {
+        Room room;
+        long expiresAt;
+        // The tick of the slot holding this entry
+        long slotTick;
+        // Its row in the list, or -1 if it does not match the search
+        int row = -1;
+    }
+
+    // Latest advertisement of each room not yet applied, by host name
+    private final ConcurrentHashMap<String, Room> advertised = new ConcurrentHashMap<>();
+
+    private final HashMap<String, Entry> entries = new HashMap<>();
+    private final ArrayList<ArrayList<String>> wheel = new ArrayList<>(SLOTS);
+    private long tick = System.currentTimeMillis() / TICK;
+    private final HashMap<String, Set<String>> trigrams = new HashMap<>();
+    private final ArrayList<Entry> rows = new ArrayList<>();
+    private String query = "";
+    private final Timer timer = new Timer(TICK, e -> update());
+
+    public RoomDirectory() {
+        for (int i = 0; i < SLOTS; i++) wheel.add(new ArrayList<>());
+    }
+
+    public void start() {
+        timer.start();
+    }
+
+    public void stop() {
+        timer.stop();
+    }
+
+    /**
+     * Record an advertisement, from any thread. Only the latest one of each room is kept until applied.
+     */
+    public void advertised(Room room) {
+        if (room == null || room.host == null || room.host.name == null) return;
+        advertised.put(room.host.name, room);
+    }
+
+    /**
+     * Apply the advertisements received, then expire the rooms not heard of for ROOM_TIMEOUT.
+     */
+    public void update() {
+        long now = System.currentTimeMillis();
+        for (String name : new ArrayList<>(advertised.keySet())) {
+            Room room = advertised.remove(name);
+            if (room != null) put(name, room, now);
+        }
+        long current = now / TICK;
+        while (tick < current) {
+            tick++;
+            ArrayList<String> slot = wheel.get((int) (tick % SLOTS));
+            if (slot.isEmpty()) continue;
+            ArrayList<String> due = new ArrayList<>(slot);
+            slot.clear();
+            for (String name : due) {
+                Entry entry = entries.get(name);
+                if (entry == null || entry.slotTick != tick) continue;
+                if (entry.expiresAt <= now) remove(name, entry);
+                // Heard of since it was scheduled, wait until its new expiry
+                else schedule(name, entry);
+            }
+        }
+    }
+
+    private void put(String name, Room room, long now) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            entry = new Entry();
+            entry.room = room;
+            entry.expiresAt = now + DrawandGuess.ROOM_TIMEOUT;
+            entries.put(name, entry);
+            index(name, room.roomName);
+            schedule(name, entry);
+            if (matches(room)) addRow(entry);
+            return;
+        }
+        // Only the expiry moves, the entry stays in its slot until then
+        entry.expiresAt = now + DrawandGuess.ROOM_TIMEOUT;
+        Room old = entry.room;
+        entry.room = room;
+        if (!namesEqual(old.roomName, room.roomName)) {
+            unindex(name, old.roomName);
+            index(name, room.roomName);
+        }
+        boolean match = matches(room);
+        if (entry.row != -1 && match) {
+            fireContentsChanged(this, entry.row, entry.row);
+        } else if (entry.row != -1) {
+            removeRow(entry);
+        } else if (match) {
+            addRow(entry);
+        }
+    }
+
+    private void remove(String name, Entry entry) {
+        entries.remove(name);
+        unindex(name, entry.room.roomName);
+        if (entry.row != -1) removeRow(entry);
+    }
+
+    private void schedule(String name, Entry entry) {
+        // The first tick at or after the expiry, never the current one
+        entry.slotTick = Math.max((entry.expiresAt + TICK - 1) / TICK, tick + 1);
+        wheel.get((int) (entry.slotTick % SLOTS)).add(name);
+    }
+
+    /**
+     * Show only the rooms whose name contains the given text.
+     */
+    public void search(String text) {
+        query = text == null ? "" : text;
+        for (Entry entry : rows) entry.row = -1;
+        int removed = rows.size();
+        rows.clear();
+        if (removed > 0) fireIntervalRemoved(this, 0, removed - 1);
+        for (String name : candidates()) {
+            Entry entry = entries.get(name);
+            if (matches(entry.room)) {
+                entry.row = rows.size();
+                rows.add(entry);
+            }
+        }
+        if (!rows.isEmpty()) fireIntervalAdded(this, 0, rows.size() - 1);
+    }
+
+    /**
+     * @return the rooms sharing every trigram of the query, or all of them if it is too short to have one
+     */
+    private Set<String> candidates() {
+        List<String> grams = trigramsOf(query);
+        if (grams.isEmpty()) return entries.keySet();
+        Set<String> smallest = null;
+        for (String gram : grams) {
+            Set<String> names = trigrams.get(gram);
+            if (names == null) return Set.of();
+            if (smallest == null || names.size() < smallest.size()) smallest = names;
+        }
+        Set<String> result = new HashSet<>();
+        for (String name : smallest) {
+            boolean all = true;
+            for (String gram : grams) {
+                if (!trigrams.get(gram).contains(name)) {
+                    all = false;
+                    break;
+                }
+            }
+            if (all) result.add(name);
+        }
+        return result;
+    }
+
+    private boolean matches(Room room) {
+        return query.isEmpty() || (room.roomName != null && room.roomName.contains(query));
+    }
+
+    private void addRow(Entry entry) {
+        entry.row = rows.size();
+        rows.add(entry);
+        fireIntervalAdded(this, entry.row, entry.row);
+    }
+
+    /**
+     * Remove a row by moving the last one into it, as the rooms have no order to keep.
+     */
+    private void removeRow(Entry entry) {
+        int row = entry.row;
+        int last = rows.size() - 1;
+        Entry moved = rows.remove(last);
+        entry.row = -1;
+        if (row != last) {
+            rows.set(row, moved);
+            moved.row = row;
+            fireContentsChanged(this, row, row);
+        }
+        fireIntervalRemoved(this, last, last);
+    }
+
+    private void index(String name, String roomName) {
+        for (String gram : trigramsOf(roomName)) {
+            trigrams.computeIfAbsent(gram, g -> new HashSet<>()).add(name);
+        }
+    }
+
+    private void unindex(String name, String roomName) {
+        for (String gram : trigramsOf(roomName)) {
+            Set<String> names = trigrams.get(gram);
+            if (names == null) continue;
+            names.remove(name);
+            if (names.isEmpty()) trigrams.remove(gram);
+        }
+    }
+
+    private static List<String> trigramsOf(String text) {
+        if (text == null || text.length() < 3) return List.of();
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++) grams.add(text.substring(i, i + 3));
+        return new ArrayList<>(grams);
+    }
+
+    private static boolean namesEqual(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public int getSize() {
+        return rows.size();
+    }
+
+    @Override
+    public Room getElementAt(int index) {
+        return rows.get(index).room;
+    }
+}
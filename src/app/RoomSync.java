@@ -0,0 +1,210 @@
+package app;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps the room of every member in line with the host's.
+ * The host multicasts a small versioned header every second. The dictionary and the initial words,
+ * which do not depend on time but can be large, are only named in the header by the hash of their content.
+ * Their content is multicast once as a BLOB when it changes, and again on BLOB_REQUEST
+ * from a member that missed it. A header is only applied once the blobs it names are all known.
+ * The blobs of currentRoom and their hashes are kept until told that the dictionary or the initial words changed,
+ * rather than serialized and hashed again for every header.
+ */
+public class RoomSync {
+
+    public static class Header {
+        public long version;
+        public String roomName;
+        public String host;
+        public int numRounds;
+        public boolean inGame;
+        public int numPlayers;
+        // Content hashes of the blobs
+        public String dictionary;
+        public String initWords;
+
+        boolean sameAs(Header h) {
+            return Objects.equals(roomName, h.roomName) && Objects.equals(host, h.host)
+                    && numRounds == h.numRounds && inGame == h.inGame && numPlayers == h.numPlayers
+                    && Objects.equals(dictionary, h.dictionary) && Objects.equals(initWords, h.initWords);
+        }
+    }
+
+    // Do not ask for, nor send, the same blob again within this period.
+    private static final long BLOB_PERIOD = 1000;
+    private static final int MAX_BLOBS = 16;
+    private static final Gson gson = new Gson();
+
+    // Blob contents by hash, least recently used first. All fields are guarded by this.
+    private final Map<String, String> blobs = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_BLOBS;
+        }
+    };
+    private final Map<String, Long> lastRequested = new HashMap<>();
+    private final Map<String, Long> lastSent = new HashMap<>();
+    // As host, the last header sent
+    private Header sent;
+    // As member, the last header applied, and the newer one waiting for its blobs
+    private Header applied;
+    private Header waiting;
+    // The blobs of currentRoom, and their hashes; null once changed, until the next header
+    private String dictionaryHash;
+    private String dictionaryBlob;
+    private String initWordsHash;
+    private String initWordsBlob;
+
+    /**
+     * As host, describe currentRoom, with a new version if anything changed since the last header,
+     * and multicast the blobs that changed. Must be called holding currentRoom.lock.
+     */
+    public synchronized Header header() {
+        Room room = DrawandGuess.currentRoom;
+        Header h = new Header();
+        h.roomName = room.roomName;
+        h.host = DrawandGuess.self.name;
+        h.numRounds = room.numRounds;
+        h.inGame = room.inGame;
+        h.numPlayers = room.numPlayers;
+        if (dictionaryHash == null) {
+            dictionaryBlob = gson.toJson(room.dictionary);
+            dictionaryHash = hash(dictionaryBlob);
+        }
+        if (initWordsHash == null) {
+            initWordsBlob = gson.toJson(room.initWords);
+            initWordsHash = hash(initWordsBlob);
+        }
+        // Put again every time, so that they are never the least recently used
+        blobs.put(dictionaryHash, dictionaryBlob);
+        blobs.put(initWordsHash, initWordsBlob);
+        h.dictionary = dictionaryHash;
+        h.initWords = initWordsHash;
+        if (sent == null || !h.sameAs(sent)) {
+            room.version++;
+            if (sent == null || !h.dictionary.equals(sent.dictionary)) send(h.dictionary);
+            if (sent == null || !h.initWords.equals(sent.initWords)) send(h.initWords);
+        }
+        h.version = room.version;
+        sent = h;
+        return h;
+    }
+
+    /**
+     * The dictionary of currentRoom was changed. Must be called holding currentRoom.lock.
+     */
+    public synchronized void dictionaryChanged() {
+        dictionaryHash = null;
+    }
+
+    /**
+     * The initial words of currentRoom were changed. Must be called holding currentRoom.lock.
+     */
+    public synchronized void initWordsChanged() {
+        initWordsHash = null;
+    }
+
+    /**
+     * As member, apply a header of the host to currentRoom, or keep it until its blobs are known.
+     * Must be called holding currentRoom.lock.
+     * @return whether currentRoom is now up to date with the host's
+     */
+    public synchronized boolean onHeader(Header h) {
+        if (h == null || h.host == null) return false;
+        // The host's own room is already up to date
+        if (h.host.equals(DrawandGuess.self.name)) return true;
+        if (applied != null && h.host.equals(applied.host) && h.version <= applied.version) return waiting == null;
+        waiting = h;
+        return tryApply();
+    }
+
+    /**
+     * Keep a blob received, applying the header waiting for it if any. Must be called holding currentRoom.lock.
+     * @return whether a header was applied
+     */
+    public synchronized boolean onBlob(String hash, String content) {
+        if (hash == null || content == null || !hash.equals(hash(content))) return false;
+        blobs.put(hash, content);
+        return waiting != null && tryApply();
+    }
+
+    /**
+     * As host, answer a member that missed a blob.
+     */
+    public synchronized void onBlobRequest(String hash) {
+        if (DrawandGuess.self.isHost && hash != null && blobs.containsKey(hash)) send(hash);
+    }
+
+    private boolean tryApply() {
+        String dictionary = blobs.get(waiting.dictionary);
+        String initWords = blobs.get(waiting.initWords);
+        if (dictionary == null || initWords == null) {
+            if (dictionary == null) request(waiting.dictionary);
+            if (initWords == null) request(waiting.initWords);
+            return false;
+        }
+        Room room = DrawandGuess.currentRoom;
+        room.roomName = waiting.roomName;
+        room.numRounds = waiting.numRounds;
+        room.inGame = waiting.inGame;
+        room.numPlayers = waiting.numPlayers;
+        room.version = waiting.version;
+        if (room.host == null || !waiting.host.equals(room.host.name)) {
+            Player host = new Player();
+            host.name = waiting.host;
+            int i = room.playerList.indexOf(host);
+            room.host = i >= 0 ? room.playerList.get(i) : host;
+        }
+        if (applied == null || !waiting.dictionary.equals(applied.dictionary)) {
+            room.dictionary = gson.fromJson(dictionary, new TypeToken<CopyOnWriteArrayList<String>>(){}.getType());
+            dictionaryHash = waiting.dictionary;
+            dictionaryBlob = dictionary;
+        }
+        if (applied == null || !waiting.initWords.equals(applied.initWords)) {
+            room.initWords = gson.fromJson(initWords, new TypeToken<ArrayList<ArrayList<String>>>(){}.getType());
+            initWordsHash = waiting.initWords;
+            initWordsBlob = initWords;
+        }
+        applied = waiting;
+        waiting = null;
+        return true;
+    }
+
+    private void send(String hash) {
+        long now = System.currentTimeMillis();
+        Long last = lastSent.get(hash);
+        if (last != null && now - last < BLOB_PERIOD) return;
+        lastSent.put(hash, now);
+        DrawandGuess.sync.post(GameEvent.blob(hash, blobs.get(hash)));
+    }
+
+    private void request(String hash) {
+        long now = System.currentTimeMillis();
+        Long last = lastRequested.get(hash);
+        if (last != null && now - last < BLOB_PERIOD) return;
+        lastRequested.put(hash, now);
+        DrawandGuess.sync.post(GameEvent.blobRequest(hash));
+    }
+
+    static String hash(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
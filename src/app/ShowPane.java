@@ -1,15 +1,39 @@
 package app;
 
 import app.UI_util.ColorLine;
+import app.UI_util.StrokeCanvas;
 
 import javax.swing.*;
 import java.awt.*;
 import java.util.ArrayList;
 
+/**
+ * Replays every word of the round: its drawings point by point, and the guesses made from them.
+ * The replay is a timeline of reveals built once from the room, then played by a Swing timer,
+ * so the thread that starts it returns at once. Each frame applies every reveal due by then and repaints once,
+ * so a late frame skips ahead rather than slowing the replay down.
+ */
 public class ShowPane extends JPanel {
+    // Replay speed, configured with -Dshow.speed=...
+    public static final double DEFAULT_SPEED = Double.parseDouble(System.getProperty("show.speed", "1.0"));
+    private static final int FRAME_RATE = 60;
+
     public JLabel wordLabel;
     public JLabel guessLabel;
     public ArrayList<ColorLine> drawing = new ArrayList<>();
+    private final StrokeCanvas canvas = new StrokeCanvas(750, 500);
+
+    // A change to the pane, due at some time into the replay, in milliseconds at speed 1
+    private record Reveal(double at, Runnable action) {
+    }
+
+    private final ArrayList<Reveal> timeline = new ArrayList<>();
+    private final Timer player = new Timer(1000 / FRAME_RATE, e -> frame());
+    private int next;
+    private double position;
+    private long lastFrame;
+    private volatile double speed = DEFAULT_SPEED;
+    private Runnable done;
 
     public ShowPane() {
         super();
@@ -24,75 +48,99 @@ public class ShowPane extends JPanel {
 
         this.add(wordLabel);
         this.add(guessLabel);
+
+        canvas.setSource(() -> drawing, null);
+        this.add(canvas);
     }
 
-    public void showing() throws InterruptedException {
+    public void setSpeed(double speed) {
+        if (speed > 0) this.speed = speed;
+    }
+
+    /**
+     * Start the replay. Must be called holding currentRoom.lock, which is only needed to build the timeline.
+     * @param done run on the Swing event thread once the replay is over
+     */
+    public void showing(Runnable done) {
+        timeline.clear();
+        double t = 0;
         for (int word = 0; word < DrawandGuess.currentRoom.numPlayers; word++) {
             for (int turn = 0; turn < DrawandGuess.currentRoom.numTurn/2; turn++) {
-                drawing.clear();
-                guessLabel.setText("");
-                wordLabel.setText("");
-                repaint();
-                Thread.sleep(1000);
+                at(t, () -> {
+                    drawing.clear();
+                    guessLabel.setText("");
+                    wordLabel.setText("");
+                });
+                t += 1000;
 
-                guessLabel.setText("");
+                String wordText;
                 int index;
                 if (turn == 0) {
-                    wordLabel.setText("Init word: " + DrawandGuess.currentRoom.playerList
-                            .get((word+turn)%DrawandGuess.currentRoom.numPlayers).guessedList.get(turn));
+                    wordText = "Init word: " + DrawandGuess.currentRoom.playerList
+                            .get((word+turn)%DrawandGuess.currentRoom.numPlayers).guessedList.get(turn);
                     index = word+turn;
                 } else {
-                    wordLabel.setText(DrawandGuess.currentRoom.playerList
+                    wordText = DrawandGuess.currentRoom.playerList
                             .get((word+turn)%DrawandGuess.currentRoom.numPlayers).name +
                             " guessed: " + DrawandGuess.currentRoom.playerList
-                            .get((word+turn)%DrawandGuess.currentRoom.numPlayers).guessedList.get(turn));
+                            .get((word+turn)%DrawandGuess.currentRoom.numPlayers).guessedList.get(turn);
                     index = word+turn+1;
                 }
-                Thread.sleep(500);
+                at(t, () -> guessLabel.setText(""));
+                at(t, () -> wordLabel.setText(wordText));
+                t += 500;
 
                 for (ColorLine line: DrawandGuess.currentRoom.playerList
                         .get((index)%DrawandGuess.currentRoom.numPlayers).drawingList.get(turn)) {
-                    drawing.add(new ColorLine(line.size, line.rgb));
-                    long sleepTime = 400/line.x.size();
-                    for (int i = 0; i < line.x.size(); i++) {
-                        drawing.get(drawing.size()-1).x.add(line.x.get(i));
-                        drawing.get(drawing.size()-1).y.add(line.y.get(i));
-                        Thread.sleep(sleepTime);
-                        repaint();
+                    at(t, () -> drawing.add(new ColorLine(line.size, line.rgb)));
+                    // Each stroke takes the same time, whatever its number of points
+                    double step = 400.0 / Math.max(line.length(), 1);
+                    for (int i = 0; i < line.length(); i++) {
+                        int x = line.x(i), y = line.y(i);
+                        t += step;
+                        at(t, () -> drawing.get(drawing.size()-1).add(x, y));
                     }
-                    Thread.sleep(200);
+                    t += 200;
                 }
 
-                Thread.sleep(500);
-                guessLabel.setText(DrawandGuess.currentRoom.playerList
+                t += 500;
+                String guessText = DrawandGuess.currentRoom.playerList
                         .get((index+1)%DrawandGuess.currentRoom.numPlayers).name +
                         " guessed: " + DrawandGuess.currentRoom.playerList
-                        .get((index+1)%DrawandGuess.currentRoom.numPlayers).guessedList.get(turn + 1));
-                Thread.sleep(2000);
-            }
-        }
-    }
-
-    public void paint(Graphics g) {
-        super.paint(g);
-
-        if (drawing.size() > 0) {
-            Graphics2D g2 = (Graphics2D) g;
-            for (ColorLine line : drawing) {
-                g.setColor(line.getColor());
-                g2.setColor(line.getColor());
-                g2.setStroke(new BasicStroke((float) (line.size * 0.85)));
-                for (int i = 0; i < line.x.size(); i++) {
-                    if (i != line.x.size() - 1) {
-                        g2.drawLine(line.x.get(i) + line.size / 2, line.y.get(i) + line.size / 2,
-                                line.x.get(i + 1) + line.size / 2, line.y.get(i + 1) + line.size / 2);
-                    }
-                    g.fillOval(line.x.get(i), line.y.get(i), line.size, line.size);
-                }
+                        .get((index+1)%DrawandGuess.currentRoom.numPlayers).guessedList.get(turn + 1);
+                at(t, () -> guessLabel.setText(guessText));
+                t += 2000;
             }
         }
+        at(t, () -> { });
 
+        SwingUtilities.invokeLater(() -> {
+            this.done = done;
+            next = 0;
+            position = 0;
+            lastFrame = System.nanoTime();
+            player.start();
+        });
+    }
 
+    private void at(double time, Runnable action) {
+        timeline.add(new Reveal(time, action));
+    }
 
+    /**
+     * Apply the reveals due since the last frame, then repaint once.
+     */
+    private void frame() {
+        long now = System.nanoTime();
+        position += (now - lastFrame) / 1e6 * speed;
+        lastFrame = now;
+        while (next < timeline.size() && timeline.get(next).at() <= position) {
+            timeline.get(next++).action().run();
+        }
+        canvas.repaint();
+        if (next == timeline.size()) {
+            player.stop();
+            if (done != null) done.run();
+        }
     }
 }
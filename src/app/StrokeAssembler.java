@@ -0,0 +1,33 @@
+package app;
+
+import app.UI_util.ColorLine;
+import app.UI_util.StrokeCodec;
+
+import java.util.ArrayList;
+
+/**
+ * Rebuilds another player's drawing in progress from the STROKE events it streams.
+ * Events come in version order, but one may be applied again after a SYNC that already reflected it,
+ * so segments are placed at their offset rather than appended.
+ */
+public class StrokeAssembler {
+
+    public static void apply(ArrayList<ColorLine> sketch, GameEvent e) {
+        if (e.strokes != null) {
+            while (sketch.size() > e.strokes) sketch.remove(sketch.size() - 1);
+        }
+        ColorLine segment = e.segment;
+        if (segment == null || e.stroke == null || e.offset == null) return;
+        if (e.stroke == sketch.size() && e.offset == 0) {
+            sketch.add(new ColorLine(segment.size, segment.rgb));
+        }
+        if (e.stroke >= sketch.size()) return;
+
+        ColorLine line = sketch.get(e.stroke);
+        if (e.offset > line.length()) return;
+        line.truncate(e.offset);
+        line.addFrom(segment, 0);
+        // The drawer simplified the stroke the same way once it ended
+        if (e.tolerance != null) StrokeCodec.simplify(line, e.tolerance);
+    }
+}
@@ -0,0 +1,101 @@
+package app;
+
+import app.UI_util.ColorLine;
+import app.UI_util.StrokeCodec;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.logging.Logger;
+
+/**
+ * Streams the drawing in progress of this player to the room, so that others see it as it is made.
+ * Points added by mouse events are not sent one by one: a tick, TICK_RATE times a second,
+ * sends the points added since the last one as a single STROKE event.
+ * Only used from the Swing event thread, like the DrawPane it belongs to.
+ */
+public class StrokeStream {
+    public static final int TICK_RATE = 30;
+    private static final Logger logger = Logger.getLogger(StrokeStream.class.getName());
+
+    private final ArrayList<ColorLine> lines;
+    private final Timer ticker = new Timer(1000 / TICK_RATE, e -> flush());
+    // Position in the drawing list of the drawing streamed
+    private int index;
+    // The stroke being streamed, and the number of its points already sent
+    private int stroke = 0;
+    private int sent = 0;
+
+    public StrokeStream(ArrayList<ColorLine> lines) {
+        this.lines = lines;
+    }
+
+    /**
+     * Start streaming with the first stroke, as the drawing's position is only known then.
+     */
+    public void start() {
+        if (ticker.isRunning()) return;
+        index = DrawandGuess.self.drawingList.size();
+        DrawandGuess.self.sketch = lines;
+        ticker.start();
+    }
+
+    /**
+     * Send the points added since the last tick. Only the last stroke can still grow,
+     * the ones before it are sent up to their end.
+     */
+    public void flush() {
+        if (!ticker.isRunning()) return;
+        while (stroke < lines.size()) {
+            ColorLine line = lines.get(stroke);
+            if (sent < line.length()) {
+                ColorLine segment = new ColorLine(line.size, line.rgb);
+                segment.addFrom(line, sent);
+                DrawandGuess.sync.publish(GameEvent.stroke(index, stroke, sent, segment));
+                sent = line.length();
+            }
+            if (stroke == lines.size() - 1) break;
+            stroke++;
+            sent = 0;
+        }
+    }
+
+    /**
+     * Send the rest of the last stroke once it ends, and simplify it. Receivers simplify it the same way.
+     */
+    public void endStroke() {
+        if (!ticker.isRunning() || lines.isEmpty()) return;
+        flush();
+        ColorLine line = lines.get(lines.size() - 1);
+        int first = Math.max(line.length() - 1, 0);
+        // Resend the last point, so that even a stroke already sent up to its end has a segment to end it
+        ColorLine segment = new ColorLine(line.size, line.rgb);
+        segment.addFrom(line, first);
+        DrawandGuess.sync.publish(GameEvent.strokeEnded(index, lines.size() - 1, first, segment, StrokeCodec.TOLERANCE));
+        StrokeCodec.simplifyDrawn(line, StrokeCodec.TOLERANCE);
+        sent = line.length();
+    }
+
+    /**
+     * Call after strokes were removed from the end of the drawing.
+     */
+    public void undone() {
+        if (!ticker.isRunning()) return;
+        flush();
+        DrawandGuess.sync.publish(GameEvent.strokesUndone(index, lines.size()));
+        // Every stroke left was sent up to its end before the undo
+        stroke = lines.size();
+        sent = 0;
+    }
+
+    /**
+     * Send what is left and submit the drawing.
+     */
+    public void submit() {
+        start();
+        flush();
+        ticker.stop();
+        int index = this.index;
+        DrawandGuess.game.post(() -> DrawandGuess.game.drawingSubmitted(index, lines));
+        logger.fine(StrokeCodec::report);
+    }
+}
@@ -0,0 +1,99 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Tracks who is done with the current turn, replacing a scan of every player after each message.
+ * Each player event only checks its own sender, and the players done are counted as they are seen,
+ * so the turn is known to be over as soon as the last one submits, and the callback runs once for it.
+ * The time each player took is kept, and logged when the turn is over, to show who holds up a round.
+ * Only used by the GameEngine, holding currentRoom.lock.
+ */
+public class TurnTracker {
+    private static final Logger logger = Logger.getLogger(TurnTracker.class.getName());
+    private final Runnable onComplete;
+    private int round;
+    private int turn;
+    // Whether the turn is being played, and still waiting for someone
+    private boolean waiting = false;
+    private long startedAt;
+    // Milliseconds each player took, in the order they submitted
+    private final LinkedHashMap<String, Long> latencies = new LinkedHashMap<>();
+
+    /**
+     * @param onComplete run once everyone is done with a turn
+     */
+    public TurnTracker(Runnable onComplete) {
+        this.onComplete = onComplete;
+    }
+
+    /**
+     * Start waiting for the given turn. Players may have submitted for it already, so they are checked once here.
+     */
+    public void begin(int round, int turn) {
+        this.round = round;
+        this.turn = turn;
+        latencies.clear();
+        startedAt = System.currentTimeMillis();
+        waiting = true;
+        for (Player player : DrawandGuess.currentRoom.playerList) {
+            if (!waiting) break;
+            update(player);
+        }
+    }
+
+    /**
+     * Check a player after an event of theirs was applied, or after a submission of this player.
+     */
+    public void update(Player player) {
+        if (!waiting || latencies.containsKey(player.name) || !isDone(player)) return;
+        latencies.put(player.name, System.currentTimeMillis() - startedAt);
+        checkComplete();
+    }
+
+    /**
+     * Check again after the players in the room changed.
+     */
+    public void checkComplete() {
+        int numPlayers = DrawandGuess.currentRoom.numPlayers;
+        if (!waiting || latencies.size() < numPlayers || DrawandGuess.currentRoom.playerList.size() < numPlayers) {
+            return;
+        }
+        waiting = false;
+        logger.info(this::report);
+        onComplete.run();
+    }
+
+    private boolean isDone(Player player) {
+        if (player.round < round) return false;
+        // guess on even turn
+        if (turn % 2 == 0) {
+            return player.guessedList.size() >= (turn + 2) / 2;
+        }
+        return player.drawingList.size() >= (turn + 1) / 2;
+    }
+
+    /**
+     * @return milliseconds each player took this turn so far, by name, in the order they submitted
+     */
+    public Map<String, Long> latencies() {
+        return new LinkedHashMap<>(latencies);
+    }
+
+    /**
+     * @return the time each player took this turn, slowest first
+     */
+    public String report() {
+        ArrayList<Map.Entry<String, Long>> entries = new ArrayList<>(latencies.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        StringBuilder sb = new StringBuilder("Round " + round + " turn " + turn + " took:");
+        for (Map.Entry<String, Long> entry : entries) {
+            sb.append(' ').append(entry.getKey()).append(' ').append(entry.getValue()).append(" ms,");
+        }
+        sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+}
@@ -1,13 +1,23 @@
 package app.UI_util;
 
+import com.google.gson.annotations.JsonAdapter;
+
 import java.awt.*;
-import java.util.ArrayList;
+import java.util.Arrays;
 
+/**
+ * A stroke: its pen size, color and points.
+ * Each point is packed in one int, x in the high 16 bits and y in the low 16 bits,
+ * which is 4 bytes a point against about 40 for two boxed Integers in lists.
+ * Coordinates are clamped to the short range, far wider than any canvas.
+ */
+@JsonAdapter(StrokeCodec.Adapter.class)
 public class ColorLine {
     public int size;
     public int rgb;
-    public ArrayList<Integer> x = new ArrayList<>();
-    public ArrayList<Integer> y = new ArrayList<>();
+    private int[] points = new int[16];
+    private int length = 0;
+    private transient Color color;
 
     public ColorLine(int size, int rgb) {
         this.size = size;
@@ -15,6 +25,60 @@ public class ColorLine {
     }
 
     public Color getColor() {
-        return new Color(rgb);
+        if (color == null || color.getRGB() != (rgb | 0xFF000000)) color = new Color(rgb);
+        return color;
+    }
+
+    /**
+     * @return the number of points
+     */
+    public int length() {
+        return length;
+    }
+
+    public int x(int i) {
+        return points[i] >> 16;
+    }
+
+    public int y(int i) {
+        return (short) points[i];
+    }
+
+    public void add(int x, int y) {
+        if (length == points.length) points = Arrays.copyOf(points, length * 2);
+        points[length++] = (clamp(x) << 16) | (clamp(y) & 0xFFFF);
+    }
+
+    /**
+     * Append the points of another stroke from the given one on.
+     */
+    public void addFrom(ColorLine other, int from) {
+        int n = other.length - from;
+        if (n <= 0) return;
+        if (length + n > points.length) points = Arrays.copyOf(points, Math.max(length + n, length * 2));
+        System.arraycopy(other.points, from, points, length, n);
+        length += n;
+    }
+
+    /**
+     * Keep only the first points.
+     */
+    public void truncate(int length) {
+        if (length < this.length) this.length = Math.max(length, 0);
+    }
+
+    /**
+     * Keep only the points flagged, in order.
+     */
+    public void retain(boolean[] keep) {
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            if (keep[i]) points[n++] = points[i];
+        }
+        length = n;
+    }
+
+    private static int clamp(int v) {
+        return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v));
     }
 }
@@ -0,0 +1,159 @@
+package app.UI_util;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+/**
+ * A canvas showing a drawing, shared by the panes that show one.
+ * Every stroke but the last is rasterized once into a backing image, so a repaint costs one image copy
+ * plus the last stroke, which is the one that may still grow. The brush cursor only repaints around itself.
+ * Every CHECKPOINT_EVERY strokes the backing image is kept, so that after an undo, or any change
+ * to a stroke already rasterized, it is rebuilt from the closest checkpoint instead of from scratch.
+ */
+public class StrokeCanvas extends JComponent {
+    private static final int CHECKPOINT_EVERY = 16;
+    private static final int MAX_CHECKPOINTS = 8;
+
+    private Supplier<List<ColorLine>> source = List::of;
+    private Lock lock;
+    private BufferedImage base;
+    // Strokes rasterized into base, with their length then
+    private final ArrayList<ColorLine> drawn = new ArrayList<>();
+    private int[] drawnLengths = new int[64];
+    // Copies of base by the number of strokes rasterized in them
+    private final TreeMap<Integer, BufferedImage> checkpoints = new TreeMap<>();
+
+    private int brushX = -1, brushY = -1, brushSize;
+    private Color brushColor;
+
+    public StrokeCanvas(int width, int height) {
+        setBounds(0, 0, width, height);
+        setOpaque(false);
+        base = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * @param source the strokes to show, looked up on every repaint
+     * @param lock held while reading the strokes, if they are changed by another thread; may be null
+     */
+    public void setSource(Supplier<List<ColorLine>> source, Lock lock) {
+        this.source = source;
+        this.lock = lock;
+        restore(0);
+        repaint();
+    }
+
+    /**
+     * Move the brush cursor, hidden if x is -1, repainting only where it was and where it is.
+     */
+    public void setBrush(int x, int y, int size, Color color) {
+        if (brushX != -1) repaint(brushX - 1, brushY - 1, brushSize + 2, brushSize + 2);
+        brushX = x;
+        brushY = y;
+        brushSize = size;
+        brushColor = color;
+        if (brushX != -1) repaint(brushX - 1, brushY - 1, brushSize + 2, brushSize + 2);
+    }
+
+    /**
+     * Repaint around the last points of a stroke, after they were added.
+     */
+    public void repaintEnd(ColorLine line) {
+        int n = line.length();
+        if (n == 0) return;
+        int i = Math.max(n - 2, 0);
+        int x0 = Math.min(line.x(i), line.x(n - 1)), y0 = Math.min(line.y(i), line.y(n - 1));
+        int x1 = Math.max(line.x(i), line.x(n - 1)), y1 = Math.max(line.y(i), line.y(n - 1));
+        repaint(x0 - 1, y0 - 1, x1 - x0 + line.size + 2, y1 - y0 + line.size + 2);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2 = (Graphics2D) g;
+        if (lock != null) lock.lock();
+        try {
+            List<ColorLine> strokes = source.get();
+            if (strokes == null) strokes = List.of();
+            rasterize(strokes, Math.max(strokes.size() - 1, 0));
+            g2.drawImage(base, 0, 0, null);
+            if (!strokes.isEmpty()) draw(g2, strokes.get(strokes.size() - 1));
+        } finally {
+            if (lock != null) lock.unlock();
+        }
+        if (brushX != -1) {
+            g.setColor(brushColor);
+            g.drawOval(brushX, brushY, brushSize, brushSize);
+        }
+    }
+
+    /**
+     * Bring base up to the first strokes, reusing what it already has of them.
+     */
+    private void rasterize(List<ColorLine> strokes, int count) {
+        int same = 0;
+        while (same < drawn.size() && same < count && drawn.get(same) == strokes.get(same)
+                && drawnLengths[same] == strokes.get(same).length()) same++;
+        if (same < drawn.size()) restore(same);
+        if (drawn.size() >= count) return;
+
+        Graphics2D g = base.createGraphics();
+        for (int i = drawn.size(); i < count; i++) {
+            ColorLine line = strokes.get(i);
+            draw(g, line);
+            if (i == drawnLengths.length) drawnLengths = Arrays.copyOf(drawnLengths, 2 * i);
+            drawnLengths[i] = line.length();
+            drawn.add(line);
+            if (drawn.size() % CHECKPOINT_EVERY == 0) {
+                checkpoints.put(drawn.size(), copy(base));
+                if (checkpoints.size() > MAX_CHECKPOINTS) checkpoints.pollFirstEntry();
+            }
+        }
+        g.dispose();
+    }
+
+    /**
+     * Go back to the closest checkpoint with at most the given number of strokes.
+     */
+    private void restore(int strokes) {
+        checkpoints.tailMap(strokes, false).clear();
+        Map.Entry<Integer, BufferedImage> checkpoint = checkpoints.floorEntry(strokes);
+        if (checkpoint != null) {
+            base = copy(checkpoint.getValue());
+            drawn.subList(checkpoint.getKey(), drawn.size()).clear();
+        } else {
+            base = new BufferedImage(base.getWidth(), base.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            drawn.clear();
+        }
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = copy.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return copy;
+    }
+
+    /**
+     * Draw a stroke as every pane always did: segments between points, and a dot at each point.
+     */
+    public static void draw(Graphics2D g, ColorLine line) {
+        g.setColor(line.getColor());
+        g.setStroke(new BasicStroke((float) (line.size * 0.85)));
+        for (int i = 0; i < line.length(); i++) {
+            if (i != line.length() - 1) {
+                g.drawLine(line.x(i) + line.size / 2, line.y(i) + line.size / 2,
+                        line.x(i + 1) + line.size / 2, line.y(i + 1) + line.size / 2);
+            }
+            g.fillOval(line.x(i), line.y(i), line.size, line.size);
+        }
+    }
+}
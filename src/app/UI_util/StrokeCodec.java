@@ -0,0 +1,204 @@
+package app.UI_util;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+
+/**
+ * Post-processing of strokes.
+ * A stroke is simplified with Ramer-Douglas-Peucker once it ends: points closer than a tolerance to the line
+ * through the points kept are dropped, which removes most of the nearly collinear points of slow drags.
+ * On the wire, points are written as zigzag varints of their deltas to the previous point, in Base64.
+ * Coordinates already are whole pixels, so quantizing them is only this rounding.
+ */
+public class StrokeCodec {
+    // Tolerance in pixels, configured with -Dstroke.tolerance=...
+    public static final double TOLERANCE = Double.parseDouble(System.getProperty("stroke.tolerance", "1.0"));
+
+    // Totals of the strokes simplified so far, to report the reduction.
+    private static long pointsIn = 0, pointsOut = 0, bytesIn = 0, bytesOut = 0;
+
+    /**
+     * Simplify a stroke in place.
+     */
+    public static void simplify(ColorLine line, double tolerance) {
+        int n = line.length();
+        if (n > 2 && tolerance > 0) {
+            boolean[] keep = new boolean[n];
+            keep[0] = keep[n - 1] = true;
+            // Ranges left to simplify, as pairs of first and last index
+            int[] stack = new int[2 * n];
+            int top = 0;
+            stack[top++] = 0;
+            stack[top++] = n - 1;
+            while (top > 0) {
+                int last = stack[--top], first = stack[--top];
+                int farthest = -1;
+                double max = tolerance;
+                for (int i = first + 1; i < last; i++) {
+                    double d = distance(line, i, first, last);
+                    if (d > max) {
+                        max = d;
+                        farthest = i;
+                    }
+                }
+                if (farthest < 0) continue;
+                keep[farthest] = true;
+                stack[top++] = first;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+            line.retain(keep);
+        }
+    }
+
+    /**
+     * Simplify a stroke drawn by this player in place, and count the reduction.
+     */
+    public static void simplifyDrawn(ColorLine line, double tolerance) {
+        int points = line.length();
+        long json = jsonLength(line);
+        simplify(line, tolerance);
+        synchronized (StrokeCodec.class) {
+            pointsIn += points;
+            pointsOut += line.length();
+            bytesIn += json;
+            bytesOut += encode(line).length();
+        }
+    }
+
+    // Distance from point i to the line through points a and b
+    private static double distance(ColorLine line, int i, int a, int b) {
+        double ax = line.x(a), ay = line.y(a);
+        double dx = line.x(b) - ax, dy = line.y(b) - ay;
+        double px = line.x(i) - ax, py = line.y(i) - ay;
+        double length = Math.hypot(dx, dy);
+        if (length == 0) return Math.hypot(px, py);
+        return Math.abs(dx * py - dy * px) / length;
+    }
+
+    public static String report() {
+        synchronized (StrokeCodec.class) {
+            return String.format("Strokes: %d points simplified to %d (%.0f%%), %d bytes as JSON arrays to %d packed (%.0f%%).",
+                    pointsIn, pointsOut, percent(pointsOut, pointsIn), bytesIn, bytesOut, percent(bytesOut, bytesIn));
+        }
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 100 : 100.0 * part / whole;
+    }
+
+    // Length of the points as the former x and y JSON arrays
+    private static long jsonLength(ColorLine line) {
+        long length = 4 + 2L * Math.max(line.length() - 1, 0);
+        for (int i = 0; i < line.length(); i++) {
+            length += Integer.toString(line.x(i)).length() + Integer.toString(line.y(i)).length();
+        }
+        return length;
+    }
+
+    /**
+     * @return the points of a stroke as Base64 zigzag varints: x then y of the first point, then deltas
+     */
+    public static String encode(ColorLine line) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(2 * line.length() + 4);
+        int px = 0, py = 0;
+        for (int i = 0; i < line.length(); i++) {
+            int x = line.x(i), y = line.y(i);
+            writeVarint(out, x - px);
+            writeVarint(out, y - py);
+            px = x;
+            py = y;
+        }
+        return Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+
+    public static void decode(String points, ColorLine line) {
+        byte[] in = Base64.getDecoder().decode(points);
+        int[] pos = {0};
+        int x = 0, y = 0;
+        while (pos[0] < in.length) {
+            x += readVarint(in, pos);
+            y += readVarint(in, pos);
+            line.add(x, y);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        int v = (value << 1) ^ (value >> 31);
+        while ((v & ~0x7F) != 0) {
+            out.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    private static int readVarint(byte[] in, int[] pos) {
+        int v = 0;
+        for (int shift = 0; pos[0] < in.length; shift += 7) {
+            byte b = in[pos[0]++];
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Writes a ColorLine with packed points, and reads both that and the former x and y arrays.
+     */
+    public static class Adapter extends TypeAdapter<ColorLine> {
+        @Override
+        public void write(JsonWriter out, ColorLine line) throws IOException {
+            if (line == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("size").value(line.size);
+            out.name("rgb").value(line.rgb);
+            out.name("points").value(encode(line));
+            out.endObject();
+        }
+
+        @Override
+        public ColorLine read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ColorLine line = new ColorLine(0, 0);
+            ArrayList<Integer> x = null, y = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "size" -> line.size = in.nextInt();
+                    case "rgb" -> line.rgb = in.nextInt();
+                    case "points" -> decode(in.nextString(), line);
+                    case "x" -> x = readInts(in);
+                    case "y" -> y = readInts(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            if (x != null && y != null) {
+                for (int i = 0; i < Math.min(x.size(), y.size()); i++) line.add(x.get(i), y.get(i));
+            }
+            return line;
+        }
+
+        private static ArrayList<Integer> readInts(JsonReader in) throws IOException {
+            ArrayList<Integer> ints = new ArrayList<>();
+            in.beginArray();
+            while (in.hasNext()) ints.add(in.nextInt());
+            in.endArray();
+            return ints;
+        }
+    }
+}
@@ -1,9 +1,16 @@
 package app;
 
+import app.UI_util.ColorLine;
+import app.UI_util.StrokeCanvas;
+
 import javax.swing.*;
 import java.awt.*;
+import java.util.List;
 
 public class WaitingPane extends JPanel {
+    // Shows the previous player's drawing as it is made, at the rate it is streamed.
+    private final StrokeCanvas canvas = new StrokeCanvas(750, 500);
+    private final Timer ticker = new Timer(1000 / StrokeStream.TICK_RATE, e -> canvas.repaint());
 
     public WaitingPane() {
         this.setLayout(null);
@@ -11,5 +18,32 @@ public class WaitingPane extends JPanel {
         waitingLabel.setFont(new Font(waitingLabel.getFont().getName(), Font.PLAIN, 25));
         waitingLabel.setBounds(160, 120, 500, 200);
         this.add(waitingLabel);
+        canvas.setSource(WaitingPane::previousSketch, DrawandGuess.currentRoom.lock);
+        this.add(canvas);
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        ticker.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        ticker.stop();
+        super.removeNotify();
+    }
+
+    /**
+     * @return the drawing in progress of the previous player. Must hold currentRoom.lock.
+     */
+    private static List<ColorLine> previousSketch() {
+        int index = DrawandGuess.currentRoom.playerList.indexOf(DrawandGuess.self);
+        int prevPlayer = DrawandGuess.currentRoom.playerList.size()-1;
+        if (index > 0) {
+            prevPlayer = index - 1;
+        }
+        if (prevPlayer < 0) return List.of();
+        return DrawandGuess.currentRoom.playerList.get(prevPlayer).sketch;
     }
 }
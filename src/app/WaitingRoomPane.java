@@ -6,6 +6,7 @@ import app.UI_util.VocabRenderer;
 import app.socket_threads.lobby_group.InLobbyAdvertiseThread;
 import app.socket_threads.room_group.InRoomAdvertiseThread;
 import app.socket_threads.room_group.InRoomReceiveThread;
+import srm.SrmEngine;
 
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
@@ -33,9 +34,11 @@ public class WaitingRoomPane extends JPanel {
 
         WaitingRoomMonitorThread monitorThread = new WaitingRoomMonitorThread();
         InLobbyAdvertiseThread inLobbyAdvertiseThread = new InLobbyAdvertiseThread();
-        inLobbyAdvertiseThread.start();
-        new InRoomAdvertiseThread().start();
-        new InRoomReceiveThread().start();
+        DrawandGuess.game.start();
+        SrmEngine engine = SrmEngine.getInstance();
+        engine.newThread("lobby-advertise", inLobbyAdvertiseThread).start();
+        engine.newThread("room-advertise", new InRoomAdvertiseThread()).start();
+        engine.newThread("room-receive", new InRoomReceiveThread()).start();
 
         for (Player player: DrawandGuess.currentRoom.playerList) dlmPlayers.addElement(player);
 
@@ -104,33 +107,35 @@ public class WaitingRoomPane extends JPanel {
             prepareStartButton.setEnabled(false);
             if (prepareStartButton.getText().equals("Start")) {
 //                WhiteBoardGUI.redirectTo(this, new DrawPane());
-                DrawandGuess.currentRoom.generateInitWords();
-                DrawandGuess.currentRoom.numPlayers = DrawandGuess.currentRoom.playerList.size();
-                DrawandGuess.currentRoom.inGame = true;
+                DrawandGuess.game.post(DrawandGuess.game::startRequested);
                 inLobbyAdvertiseThread.isInterrupted = true;
                 monitorThread.isInterrupted = true;
             } else {
                 if (prepareStartButton.getText().equals("Prepare"))
                     prepareStartButton.setText("Unprepare");
                 else prepareStartButton.setText("Prepare");
-                DrawandGuess.self.ready = !DrawandGuess.self.ready;
+                DrawandGuess.game.post(DrawandGuess.game::toggleReady);
             }
             prepareStartButton.setEnabled(true);
         });
         this.add(prepareStartButton);
 
-        monitorThread.start();
+        engine.newThread("waiting-room-monitor", monitorThread).start();
     }
 
     private void addDictionary(File file){
         try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
             String tempString;
-            synchronized (DrawandGuess.currentRoom) {
+            DrawandGuess.currentRoom.lock.lock();
+            try {
                 DrawandGuess.currentRoom.dictionary.clear();
                 while ((tempString = reader.readLine()) != null) {
                     DrawandGuess.currentRoom.dictionary.add(tempString);
                 }
-                DrawandGuess.currentRoom.notifyAll();
+                DrawandGuess.roomSync.dictionaryChanged();
+                DrawandGuess.currentRoom.changed.signalAll();
+            } finally {
+                DrawandGuess.currentRoom.lock.unlock();
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -142,16 +147,17 @@ public class WaitingRoomPane extends JPanel {
      * This class starts and ends with the WaitingROomPane. It waits on the currentRoom object to be changed,
      * and updates the UI of the waiting room accordingly.
      */
-    private class WaitingRoomMonitorThread extends Thread {
+    private class WaitingRoomMonitorThread implements Runnable {
         private volatile boolean isInterrupted = false;
         @Override
         public void run() {
             while (!isInterrupted) {
                 boolean canStart = true;
-                synchronized (DrawandGuess.currentRoom) {
+                DrawandGuess.currentRoom.lock.lock();
+                try {
                     // Wait until getting notified current room's changed
                     try {
-                        DrawandGuess.currentRoom.wait();
+                        DrawandGuess.currentRoom.changed.await();
                     } catch (InterruptedException e) {
                         e.printStackTrace();
                     }
@@ -162,6 +168,8 @@ public class WaitingRoomPane extends JPanel {
                     }
                     playerList.setListData(DrawandGuess.currentRoom.playerList.toArray(new Player[0]));
                     wordList.setListData(DrawandGuess.currentRoom.dictionary.toArray(new String[0]));
+                } finally {
+                    DrawandGuess.currentRoom.lock.unlock();
                 }
                 if (DrawandGuess.self.isHost) {
                     nameField.setEditable(true);
@@ -5,8 +5,6 @@ import app.UI_util.MyMouseAdapter;
 import javax.swing.*;
 import java.awt.*;
 import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
 
 public class WelcomePane extends JPanel {
     private final JTextField userName;
@@ -30,12 +28,6 @@ public class WelcomePane extends JPanel {
                     DrawandGuess.self.name = name;
                     WhiteBoardGUI.redirectTo(this, WhiteBoardGUI.lobby);
                     WhiteBoardGUI.frame.setTitle("Lobby");
-                    new Timer().schedule(new TimerTask() {
-                        @Override
-                        public void run() {
-                            WhiteBoardGUI.lobby.refresh();
-                        }
-                    }, DrawandGuess.ROOM_TIMEOUT);
                 }
             }
         });
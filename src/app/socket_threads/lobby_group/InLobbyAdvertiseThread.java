@@ -3,47 +3,52 @@ package app.socket_threads.lobby_group;
 import app.DrawandGuess;
 import app.MySocketFactory;
 import app.Room;
-import srm.ReliableMulticastSocket;
+import srm.SrmChannel;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.InetAddress;
 
 /**
  * A thread that constantly advertises the room's existence to the lobby.
  * This thread would wait until this player becomes the host of the room.
  */
-public class InLobbyAdvertiseThread extends Thread {
+public class InLobbyAdvertiseThread implements Runnable {
     public volatile boolean isInterrupted = false;
 
     // multicast room info to lobby every second
     public void run() {
         // Check if this player has become the host of the room
-        synchronized (DrawandGuess.self) {
+        DrawandGuess.self.lock.lock();
+        try {
             while (!DrawandGuess.self.isHost) {
                 try {
-                    DrawandGuess.self.wait();
+                    DrawandGuess.self.changed.await();
                 } catch (InterruptedException e) {
                     System.err.println("RoomAdvertiseThread: This player never became the host.");
                     return;
                 }
-                DrawandGuess.self.notifyAll();
+                DrawandGuess.self.changed.signalAll();
             }
+        } finally {
+            DrawandGuess.self.lock.unlock();
         }
 
-        ReliableMulticastSocket socket = MySocketFactory.newInstance(null, DrawandGuess.LOBBY_PORT);
+        SrmChannel socket = MySocketFactory.newInstance(DrawandGuess.LOBBY_ADDRESS, DrawandGuess.LOBBY_PORT,
+                SrmChannel.Role.SEND);
         // Multicast this room to the lobby every second
         while (!isInterrupted) {
-            synchronized (DrawandGuess.currentRoom) {
-                byte[] out = DrawandGuess.gson.toJson(DrawandGuess.currentRoom, Room.class).getBytes();
+            DrawandGuess.currentRoom.lock.lock();
+            try {
+                byte[] out = DrawandGuess.gson.toJson(DrawandGuess.currentRoom.summary(), Room.class).getBytes();
                 try {
-                    socket.send(new DatagramPacket(out, out.length, InetAddress.getByName(DrawandGuess.LOBBY_ADDRESS), DrawandGuess.LOBBY_PORT));
+                    socket.send(out);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
+            } finally {
+                DrawandGuess.currentRoom.lock.unlock();
             }
             try {
-                sleep(1000);
+                Thread.sleep(1000);
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
@@ -3,42 +3,42 @@ package app.socket_threads.lobby_group;
 import app.DrawandGuess;
 import app.MySocketFactory;
 import app.Room;
-import srm.ReliableMulticastSocket;
+import app.RoomDirectory;
+import srm.DataCache;
+import srm.SrmChannel;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.time.Instant;
-import java.util.concurrent.ConcurrentMap;
 
 /**
  * A thread that constantly receives rooms' advertisement and updates the lobby accordingly.
- * Received data is kept in the concurrent map that shared with the main thread.
+ * Received data is handed to the room directory that the lobby shows.
  * This thread should only run when the player is in the lobby panel.
  */
-public class InLobbyReceiveThread extends Thread {
-    private final ReliableMulticastSocket socket;
-    private final ConcurrentMap<Room, Instant> roomsLastUpdated;
+public class InLobbyReceiveThread implements Runnable {
+    private final SrmChannel socket;
+    private final RoomDirectory directory;
     public volatile boolean interrupted = false;
+    // Room beacons supersede each other, so only the latest one per host is worth queueing.
+    private static final int MAX_QUEUED_BEACONS = 256;
 
-    public InLobbyReceiveThread(ConcurrentMap<Room, Instant> roomsLastUpdated) {
-        this.roomsLastUpdated = roomsLastUpdated;
-        socket = MySocketFactory.newInstance(DrawandGuess.LOBBY_ADDRESS, DrawandGuess.LOBBY_PORT);
+    public InLobbyReceiveThread(RoomDirectory directory) {
+        this.directory = directory;
+        socket = MySocketFactory.newInstance(DrawandGuess.LOBBY_ADDRESS, DrawandGuess.LOBBY_PORT,
+                SrmChannel.Role.RECEIVE, MAX_QUEUED_BEACONS, DataCache.Overflow.DROP_OLDEST, true);
     }
 
     public void run() {
         while (!interrupted) {
             DatagramPacket p = new DatagramPacket(new byte[65507], 65507);
-            socket.receive(p);
-            Room room = DrawandGuess.gson.fromJson(new String(p.getData(), 0, p.getLength()), Room.class);
-            synchronized (roomsLastUpdated) {
-                roomsLastUpdated.remove(room);
-                roomsLastUpdated.put(room, Instant.now());
+            try {
+                socket.receive(p);
+            } catch (IOException e) {
+                e.printStackTrace();
+                break;
             }
-        }
-        try {
-            socket.leaveGroup(DrawandGuess.LOBBY_SOCKET_ADDRESS, null);
-        } catch (IOException e) {
-            e.printStackTrace();
+            Room room = DrawandGuess.gson.fromJson(new String(p.getData(), 0, p.getLength()), Room.class);
+            directory.advertised(room);
         }
         socket.close();
     }
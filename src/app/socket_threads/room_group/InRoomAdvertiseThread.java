@@ -1,65 +1,54 @@
 package app.socket_threads.room_group;
 
 import app.DrawandGuess;
+import app.GameEvent;
 import app.MySocketFactory;
-import app.Player;
-import app.Room;
-import srm.ReliableMulticastSocket;
+import srm.SrmChannel;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
 
 /**
- * This thread periodically multicasts the player information to the room, and only the host would
- * also use this thread to multicast room information to the whole room as well.
- * This thread also periodically (the same period as multicasting) detects if the host is absent,
- * and decide if this player can be the new host.
+ * This thread sends the changes of this player to the room as they are made, and periodically multicasts
+ * a beacon with the versions of the players known. Only the host would also use this thread to multicast
+ * room information to the whole room as well.
+ * This thread also periodically (the same period as multicasting) has the GameEngine check if the host
+ * is absent, and decide if this player can be the new host.
  */
-public class InRoomAdvertiseThread extends Thread {
+public class InRoomAdvertiseThread implements Runnable {
     public volatile boolean isInterrupted = false;
 
-    // Only become the host after MAX_NO_HOST_COUNT times updates without a host.
-    private int noHostCount = 0;
+    private static final long BEACON_PERIOD = 1000;
 
     @Override
     public void run() {
-        ReliableMulticastSocket socket = MySocketFactory.newInstance(null, DrawandGuess.currentRoom.port);
+        SrmChannel socket = MySocketFactory.newInstance(DrawandGuess.currentRoom.IP, DrawandGuess.currentRoom.port,
+                SrmChannel.Role.SEND);
+        long nextBeacon = 0;
         while (!isInterrupted) {
-            synchronized (DrawandGuess.currentRoom) {
-                // Check if it's time to become the new host
-                if (DrawandGuess.currentRoom.playerList.size() > 0
-                        && !DrawandGuess.currentRoom.playerList.contains(DrawandGuess.currentRoom.host)
-                        && DrawandGuess.currentRoom.playerList.get(0).equals(DrawandGuess.self)) {
-                    noHostCount++;
-                    int MAX_NO_HOST_COUNT = 3;
-                    if (noHostCount >= MAX_NO_HOST_COUNT) {
-                        synchronized (DrawandGuess.self) {
-                            DrawandGuess.self.isHost = true;
-                            DrawandGuess.self.ready = true;
-                            DrawandGuess.self.notifyAll();
-                        }
-                        DrawandGuess.currentRoom.host = DrawandGuess.self;
-                        DrawandGuess.currentRoom.notifyAll();
-                    }
-                } else noHostCount = 0;
-            }
-
-            // Multicast player and room information
-            byte[] playerOut = DrawandGuess.gson.toJson(DrawandGuess.self, Player.class).getBytes();
             try {
-                socket.send(new DatagramPacket(playerOut, playerOut.length, DrawandGuess.currentRoom.getAddress()));
-                if (DrawandGuess.self.isHost) {
-                    synchronized (DrawandGuess.currentRoom) {
-                        byte[] roomOut = DrawandGuess.gson.toJson(DrawandGuess.currentRoom, Room.class).getBytes();
-                        socket.send(new DatagramPacket(roomOut, roomOut.length, DrawandGuess.currentRoom.getAddress()));
+                DrawandGuess.sync.queueSyncIfWanted();
+
+                long now = System.currentTimeMillis();
+                if (now >= nextBeacon) {
+                    DrawandGuess.game.post(DrawandGuess.game::checkHost);
+                    // Multicast the version vector, and the room header if host
+                    socket.send(DrawandGuess.sync.beacon().toBytes());
+                    if (DrawandGuess.self.isHost) {
+                        DrawandGuess.currentRoom.lock.lock();
+                        try {
+                            socket.send(GameEvent.room(DrawandGuess.roomSync.header()).toBytes());
+                        } finally {
+                            DrawandGuess.currentRoom.lock.unlock();
+                        }
                     }
+                    nextBeacon = now + BEACON_PERIOD;
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            try {
-                sleep(1000);
-            } catch (InterruptedException e) {
+
+                // Send the changes of this player as they are made, until the next beacon is due
+                GameEvent event = DrawandGuess.sync.poll(nextBeacon - System.currentTimeMillis());
+                if (event != null) socket.send(event.toBytes());
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                // Keep beaconing, or the others would time this player out
                 e.printStackTrace();
             }
         }
@@ -0,0 +1,174 @@
+package srm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+
+/**
+ * Replays a capture of received datagrams into a ReceiverDispatcher, StateTable and RequestRepairPool stack,
+ * as seen by the member that captured it, either as fast as possible or at the recorded pace.
+ * Nothing goes on the network: messages the stack would multicast are only counted.
+ * Reports decode throughput and the request/repair decisions taken, to be compared across versions.
+ * For those to be comparable, SESSION distances are measured against the capture time of the datagram
+ * being replayed rather than the wall clock, and timers are seeded.
+ * Payloads are only cached, never queued for delivery, as nothing consumes them.
+ *
+ * Usage: java srm.CaptureReplay [--paced] [--drain millis] [--seed n] capture-file
+ *  --paced  keeps the recorded gaps between datagrams
+ *  --drain  waits after the last datagram for pending timers to fire
+ *  --seed   seeds timer randomization, 1 by default
+ */
+public class CaptureReplay
+{
+	private static class ReplaySocket extends ReliableMulticastSocket
+	{
+		final DatagramCapture.Reader reader;
+		final boolean paced;
+		final CountDownLatch done = new CountDownLatch(1);
+		final Map<String, Integer> decisions = new TreeMap<>();
+		final Map<String, Integer> sent = new TreeMap<>();
+		DatagramCapture.Datagram first;
+		/** Capture time of the datagram being replayed */
+		volatile long captureNanos;
+		long replayStart, replayEnd;
+		long received = 0, bytes = 0;
+
+		ReplaySocket(DatagramCapture.Reader reader, DatagramCapture.Datagram first, boolean paced) throws IOException {
+			super(0);
+			this.reader = reader;
+			this.first = first;
+			this.paced = paced;
+		}
+
+		@Override
+		protected long clockNanos() {
+			return captureNanos;
+		}
+
+		@Override
+		protected String getFrom() {
+			return reader.getFrom() != null ? reader.getFrom() : super.getFrom();
+		}
+
+		@Override
+		protected void transportReceive(DatagramPacket p) throws IOException
+		{
+			DatagramCapture.Datagram d;
+			do d = next();
+			while (d != null && d.direction() != DatagramCapture.RECEIVED);
+			if (d == null) {
+				replayEnd = System.nanoTime();
+				done.countDown();
+				throw new EOFException("End of capture.");
+			}
+			if (paced) {
+				long wait = (d.nanos() - first.nanos()) - (System.nanoTime() - replayStart);
+				if (wait > 0) {
+					try {
+						Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+					}
+					catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+				}
+			}
+			captureNanos = d.nanos();
+			int length = Math.min(d.data().length, p.getData().length);
+			System.arraycopy(d.data(), 0, p.getData(), 0, length);
+			p.setLength(length);
+			received++;
+			bytes += length;
+		}
+
+		private DatagramCapture.Datagram next() throws IOException
+		{
+			if (first != null && received == 0 && replayStart == 0) {
+				replayStart = System.nanoTime();
+				return first;
+			}
+			return reader.next();
+		}
+
+		@Override
+		protected void transportSend(DatagramPacket p)
+		{
+			Message msg = gson.fromJson(new String(p.getData(), p.getOffset(), p.getLength()), Message.class);
+			String type = msg != null && msg.getType() != null ? msg.getType().name() : "?";
+			synchronized (sent) {
+				sent.merge(type, 1, Integer::sum);
+			}
+		}
+
+		@Override
+		protected void trace(Tracer.Event event, String whose_seq, String peer) {
+			count(event);
+		}
+
+		@Override
+		protected void trace(Tracer.Event event, String whose, long seq, String peer) {
+			count(event);
+		}
+
+		private void count(Tracer.Event event) {
+			synchronized (decisions) {
+				decisions.merge(event.name(), 1, Integer::sum);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		boolean paced = false;
+		long drain = 0;
+		long seed = 1;
+		String path = null;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--paced" -> paced = true;
+			case "--drain" -> drain = Long.parseLong(args[++i]);
+			case "--seed" -> seed = Long.parseLong(args[++i]);
+			default -> path = args[i];
+			}
+		}
+		if (path == null) {
+			System.err.println("Usage: java srm.CaptureReplay [--paced] [--drain millis] [--seed n] capture-file");
+			System.exit(1);
+		}
+		ReliableMulticastSocket.logger.setLevel(Level.WARNING);
+
+		DatagramCapture.Reader reader = new DatagramCapture.Reader(path);
+		DatagramCapture.Datagram first = reader.next();   // Also reads the header
+		if (first == null) {
+			System.err.println("Empty capture.");
+			System.exit(1);
+		}
+		ReplaySocket socket = new ReplaySocket(reader, first, paced);
+		socket.setDelivering(false);
+		socket.setTimerSeed(seed);
+		socket.captureNanos = first.nanos();
+		socket.startStack(InetAddress.getLoopbackAddress());
+		socket.done.await();
+		if (drain > 0) Thread.sleep(drain);
+		socket.close();
+		reader.close();
+
+		double seconds = (socket.replayEnd - socket.replayStart) / 1e9;
+		System.out.println("Replayed as: "+socket.getFrom());
+		System.out.printf("Datagrams: %d (%d bytes) in %.3f s, %.0f datagrams/s%n",
+				socket.received, socket.bytes, seconds, socket.received / seconds);
+		System.out.println("Decisions:");
+		synchronized (socket.decisions) {
+			socket.decisions.forEach((k, v) -> System.out.printf("  %-17s %d%n", k, v));
+		}
+		System.out.println("Would have multicast:");
+		synchronized (socket.sent) {
+			socket.sent.forEach((k, v) -> System.out.printf("  %-17s %d%n", k, v));
+		}
+	}
+
+}
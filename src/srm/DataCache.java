@@ -3,55 +3,425 @@ package srm;
 import java.time.LocalTime;
 import java.time.temporal.ChronoUnit;
 import java.util.AbstractMap.SimpleEntry;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.BlockingQueue;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 
 /**
- * A cache of recent DATA/REPAIR payload to feed REPAIR, from each data source.
+ * A cache of recent DATA/REPAIR payload to feed REPAIR, partitioned by data source,
+ * each partition being a ring indexed by seq.
  * Keeps the receiving or last repairing time,
  * with a periodic removal of those considered deprecated.
- * Also contains a queue of unconsumed datagram payload for
+ * Also contains a bounded queue of unconsumed datagram payload for
  * the method ReliableMulticastSocket::receive to fetch from.
  */
-public class DataCache extends ConcurrentHashMap<String, SimpleEntry<byte[], LocalTime>>
+public class DataCache
 {
+	/**
+	 * A cached payload with its receiving or last repairing time,
+	 * and the REPAIR datagram for it once encoded.
+	 */
+	public static class Entry extends SimpleEntry<byte[], LocalTime>
+	{
+		/** Ready-to-send REPAIR message; null until first needed */
+		private volatile byte[] repair;
+
+		public Entry(byte[] payload, LocalTime time) {
+			super(payload, time);
+		}
+
+		/**
+		 * Encode the REPAIR message on first use, then keep its bytes for later ones.
+		 * Receivers only read the body of a REPAIR, so the seq of the first encoding is reused.
+		 */
+		protected byte[] getRepair(String whose_seq, long seq, String from)
+		{
+			byte[] out = repair;
+			if (out == null) {   // Racing encoders produce the same bytes
+				Message msg = new Message(seq, from, Type.REPAIR,
+						ReliableMulticastSocket.gson.toJson(new Message.RepairBody(whose_seq, getKey())).getBytes());
+				repair = out = ReliableMulticastSocket.gson.toJson(msg).getBytes();
+			}
+			return out;
+		}
+	}
+
+	/**
+	 * Cached entries of one source, in a ring growing to cover the seqs held.
+	 * Seqs of a source are dense, so lookup, insertion and range scans need no hashing nor boxing.
+	 */
+	protected static class Partition
+	{
+		/** Widest seq range kept per source; older seqs are dropped beyond it */
+		private static final int MAX_SPAN = 1 << 20;
+
+		/** A power of 2; ring[head] holds seq base */
+		private Entry[] ring = new Entry[16];
+		private int head = 0;
+		private long base = 0;
+		/** Seqs covered from base, held or not */
+		private int span = 0;
+		/** Seqs held */
+		private int size = 0;
+
+		private int slot(long seq) {
+			return (int) ((head + (seq - base)) & (ring.length - 1));
+		}
+
+		protected synchronized Entry get(long seq) {
+			return seq >= base && seq < base + span ? ring[slot(seq)] : null;
+		}
+
+		protected synchronized void put(long seq, Entry entry)
+		{
+			if (span == 0) {
+				head = 0;
+				base = seq;
+				span = 1;
+			}
+			else if (seq < base) {
+				if (base + span - seq > MAX_SPAN) return;   // Far too old to be worth keeping
+				grow((int) (base + span - seq));
+				head = (int) ((head - (base - seq)) & (ring.length - 1));
+				span += (int) (base - seq);
+				base = seq;
+			}
+			else if (seq >= base + span) {
+				if (seq - base + 1 > MAX_SPAN) trim(seq - MAX_SPAN + 1);
+				if (span == 0) {
+					head = 0;
+					base = seq;
+				}
+				grow((int) (seq - base + 1));
+				span = (int) (seq - base + 1);
+			}
+			int i = slot(seq);
+			if (ring[i] == null) size++;
+			ring[i] = entry;
+		}
+
+		/**
+		 * Make room for the given span, keeping entries in seq order from index 0.
+		 */
+		private void grow(int needed)
+		{
+			if (needed <= ring.length) return;
+			Entry[] larger = new Entry[Integer.highestOneBit(needed - 1) << 1];
+			for (int i = 0; i < span; i++) larger[i] = ring[(head + i) & (ring.length - 1)];
+			ring = larger;
+			head = 0;
+		}
+
+		/**
+		 * Drop every seq below the given one.
+		 */
+		private void trim(long from)
+		{
+			while (span > 0 && base < from) {
+				if (ring[head] != null) size--;
+				ring[head] = null;
+				head = (head + 1) & (ring.length - 1);
+				base++;
+				span--;
+			}
+		}
+
+		protected synchronized void removeIf(Predicate<Entry> filter)
+		{
+			for (int i = 0; i < span; i++) {
+				int j = (head + i) & (ring.length - 1);
+				if (ring[j] != null && filter.test(ring[j])) {
+					ring[j] = null;
+					size--;
+				}
+			}
+			// Shrink the covered range to the seqs still held
+			while (span > 0 && ring[head] == null) {
+				head = (head + 1) & (ring.length - 1);
+				base++;
+				span--;
+			}
+			while (span > 0 && ring[slot(base + span - 1)] == null) span--;
+		}
+
+		/**
+		 * Returns the entries held between two seqs, both inclusive, in seq order.
+		 */
+		protected synchronized Map<Long, Entry> range(long first, long last)
+		{
+			Map<Long, Entry> out = new LinkedHashMap<>();
+			for (long seq = Math.max(first, base); seq <= last && seq < base + span; seq++) {
+				Entry e = ring[slot(seq)];
+				if (e != null) out.put(seq, e);
+			}
+			return out;
+		}
+
+		protected synchronized int size() {
+			return size;
+		}
+
+		protected synchronized boolean isEmpty() {
+			return size == 0;
+		}
+	}
+
+	/** What to do when the delivery queue is full */
+	public enum Overflow
+	{
+		/** Discard the head of the queue to make room */
+		DROP_OLDEST,
+		/** Discard the incoming payload */
+		DROP_NEWEST,
+		/**
+		 * Park the dispatcher until the application consumes. Meanwhile SESSION, REQUEST and REPAIR
+		 * are not handled either, for every member of the group; only for callers sure to keep consuming.
+		 */
+		BLOCK
+	}
+
+	/** Counters of what the delivery queue has discarded or waited for.
+	 *
+	 * @param droppedOldest payloads evicted from the head
+	 * @param droppedNewest payloads refused at the tail
+	 * @param blocked times the dispatcher had to wait for room
+	 * @param coalesced payloads superseded by a later one from the same source
+	 */
+	public record DeliveryStats(long droppedOldest, long droppedNewest, long blocked, long coalesced) {
+	}
+
+	public static final int DEFAULT_CAPACITY = 1024;
+	/** Never holds up the dispatcher, BLOCK has to be asked for */
+	public static final Overflow DEFAULT_OVERFLOW = Overflow.DROP_OLDEST;
+
 	/** How long a message is kept, in minutes */
 	private final long ttl;
-	private final Timer updater = new Timer();
+	/** Cached entries by source */
+	private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+	/** Periodic removal, run on the engine's timers */
+	private final ScheduledFuture<?> updater;
+
+	/** Queue to feed consumption, as (source, payload) pairs; guarded by lock */
+	private final Deque<SimpleEntry<String, byte[]>> unconsumed = new ArrayDeque<>();
+	/** A lock rather than a monitor, so that consumers on virtual threads park without pinning a carrier */
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	/** Entry still queued for each source, only used when coalescing */
+	private final Map<String, SimpleEntry<String, byte[]>> queuedBySource = new HashMap<>();
+	/** Asynchronous consumers waiting for the next payload, served before queueing */
+	private final Deque<CompletableFuture<byte[]>> waiters = new ArrayDeque<>();
+	private int capacity;
+	private Overflow overflow;
+	/** Keep only the latest unconsumed payload per source, e.g. for beacons */
+	private boolean coalesce;
+	/** Whether anyone is going to consume; if not, payloads are only cached */
+	private volatile boolean delivering = true;
+	/** Set on leaving the group, after which no asynchronous consumer is left waiting; guarded by lock */
+	private boolean deliveryClosed = false;
+
+	private final AtomicLong droppedOldest = new AtomicLong(0);
+	private final AtomicLong droppedNewest = new AtomicLong(0);
+	private final AtomicLong blocked = new AtomicLong(0);
+	private final AtomicLong coalesced = new AtomicLong(0);
 
-	/** Queue to feed consumption */
-	private final BlockingQueue<byte[]> unconsumed = new LinkedBlockingDeque<>();
+	public DataCache(long ttl) {
+		this(ttl, DEFAULT_CAPACITY, DEFAULT_OVERFLOW, false);
+	}
 
-	public DataCache(long ttl)
+	/**
+	 * @param ttl how long a message is kept, in minutes
+	 * @param capacity the maximum number of unconsumed payloads
+	 * @param overflow policy applied once capacity is reached
+	 * @param coalesce whether a newer payload replaces the one still queued from the same source
+	 */
+	public DataCache(long ttl, int capacity, Overflow overflow, boolean coalesce)
 	{
 		this.ttl = ttl;
-		updater.schedule(new TimerTask() {
-			@Override
-			public void run() {
-				ReliableMulticastSocket.logger.info("Removing deprecated from cache.");
-				forEach((k, v) -> {
-					if (ChronoUnit.MINUTES.between(v.getValue(), LocalTime.now()) > getTtl()) {
-						remove(k);
-					}
-				});
-			}
-		}, ttl * 60000, ttl * 60000);
+		configureDelivery(capacity, overflow, coalesce);
+		updater = SrmEngine.getInstance().timers().scheduleAtFixedRate(() -> {
+			ReliableMulticastSocket.logger.info("Removing deprecated from cache.");
+			LocalTime now = LocalTime.now();
+			partitions.values().forEach(partition -> partition.removeIf(
+					entry -> ChronoUnit.MINUTES.between(entry.getValue(), now) > getTtl()));
+			partitions.values().removeIf(Partition::isEmpty);
+		}, ttl, ttl, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Change the delivery queue settings; already queued payloads are kept.
+	 */
+	protected void configureDelivery(int capacity, Overflow overflow, boolean coalesce)
+	{
+		if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive.");
+		lock.lock();
+		try {
+			this.capacity = capacity;
+			this.overflow = overflow;
+			this.coalesce = coalesce;
+			queuedBySource.clear();
+			if (coalesce) unconsumed.forEach(entry -> queuedBySource.put(entry.getKey(), entry));
+			notFull.signalAll();   // Capacity may have grown
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	protected void setDelivering(boolean delivering) {
+		this.delivering = delivering;
 	}
 
 	/**
 	 * Queue and cache a DATA/REPAIR payload.
 	 */
+	protected void put(String from, long seq, byte[] payload) {
+		if (delivering) enqueue(from, payload);
+		partitions.computeIfAbsent(from, x -> new Partition()).put(seq, new Entry(payload, LocalTime.now()));
+	}
+
+	/**
+	 * @param whose_seq ${whose}-${seq}
+	 */
 	protected void put(String whose_seq, byte[] payload) {
+		int dash = whose_seq.lastIndexOf('-');
+		put(whose_seq.substring(0, dash), Long.parseLong(whose_seq.substring(dash + 1)), payload);
+	}
+
+	/**
+	 * @return the cached entry; null if absent
+	 */
+	protected Entry get(String from, long seq) {
+		Partition partition = partitions.get(from);
+		return partition != null ? partition.get(seq) : null;
+	}
+
+	/**
+	 * @param whose_seq ${whose}-${seq}
+	 * @return the cached entry; null if absent or malformed
+	 */
+	protected Entry get(String whose_seq)
+	{
+		int dash = whose_seq.lastIndexOf('-');
+		try {
+			return get(whose_seq.substring(0, dash), Long.parseLong(whose_seq.substring(dash + 1)));
+		}
+		catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the cached entries of one source between two seqs, both inclusive, in seq order.
+	 */
+	protected Map<Long, Entry> range(String from, long first, long last) {
+		Partition partition = partitions.get(from);
+		return partition != null ? partition.range(first, last) : Map.of();
+	}
+
+	/**
+	 * Returns how many payloads are cached from one source.
+	 */
+	protected int size(String from) {
+		Partition partition = partitions.get(from);
+		return partition != null ? partition.size() : 0;
+	}
+
+	/**
+	 * Drop everything cached from one source, e.g. once it has left.
+	 */
+	protected void purge(String from) {
+		partitions.remove(from);
+	}
+
+	/**
+	 * Apply coalescing and the overflow policy, then append to the delivery queue.
+	 */
+	private void enqueue(String source, byte[] payload)
+	{
+		CompletableFuture<byte[]> waiter;
+		lock.lock();
 		try {
-			unconsumed.put(payload);
+			// Hand over directly to a pending asynchronous consumer if there is one
+			do waiter = waiters.pollFirst();
+			while (waiter != null && waiter.isDone());
+			if (waiter == null) {
+				queue(source, payload);
+				return;
+			}
+		}
+		finally {
+			lock.unlock();
 		}
-		catch (InterruptedException e) {
-			e.printStackTrace();
+		// Complete outside the lock, since dependent stages may run right here.
+		// The waiter may have been cancelled meanwhile, then try the next.
+		if (!waiter.complete(payload)) enqueue(source, payload);
+	}
+
+	/**
+	 * Append to the delivery queue; the caller holds the lock.
+	 */
+	private void queue(String source, byte[] payload)
+	{
+		if (coalesce) {
+			SimpleEntry<String, byte[]> queued = queuedBySource.get(source);
+			if (queued != null) {
+				queued.setValue(payload);   // Keeps its place in the queue
+				coalesced.incrementAndGet();
+				return;
+			}
+		}
+		if (unconsumed.size() >= capacity) {
+			switch (overflow) {
+			case DROP_OLDEST -> {
+				dequeue();
+				droppedOldest.incrementAndGet();
+				ReliableMulticastSocket.logger.info("Delivery queue full, dropping the oldest.");
+			}
+			case DROP_NEWEST -> {
+				droppedNewest.incrementAndGet();
+				ReliableMulticastSocket.logger.info("Delivery queue full, dropping the newest.");
+				return;
+			}
+			case BLOCK -> {
+				blocked.incrementAndGet();
+				try {
+					while (unconsumed.size() >= capacity) notFull.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			}
 		}
-		super.put(whose_seq, new SimpleEntry<>(payload, LocalTime.now()));
+		SimpleEntry<String, byte[]> entry = new SimpleEntry<>(source, payload);
+		unconsumed.addLast(entry);
+		if (coalesce) queuedBySource.put(source, entry);
+		notEmpty.signal();
+	}
+
+	/**
+	 * Remove the head of the delivery queue; the caller holds the lock.
+	 */
+	private byte[] dequeue()
+	{
+		SimpleEntry<String, byte[]> entry = unconsumed.pollFirst();
+		if (entry == null) return null;
+		if (coalesce) queuedBySource.remove(entry.getKey(), entry);
+		notFull.signal();   // Room for a blocked dispatcher
+		return entry.getValue();
 	}
 
 	/**
@@ -59,15 +429,119 @@ public class DataCache extends ConcurrentHashMap<String, SimpleEntry<byte[], Loc
 	 */
 	protected byte[] consume() throws InterruptedException {
 		ReliableMulticastSocket.logger.info("Consuming from cache.");
-		return unconsumed.take();
+		lock.lockInterruptibly();
+		try {
+			while (unconsumed.isEmpty()) notEmpty.await();
+			return dequeue();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Consume one queued datagram payload, waiting up to the given time.
+	 *
+	 * @return payload; null if none arrives in time
+	 */
+	protected byte[] poll(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (unconsumed.isEmpty()) {
+				long left = deadline - System.nanoTime();
+				if (left <= 0) return null;
+				notEmpty.awaitNanos(left);
+			}
+			return dequeue();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Consume one datagram payload without parking the caller.
+	 * Cancelling the future gives up its turn; the payload then goes to the next consumer.
+	 *
+	 * @return a future completed by the dispatcher once a payload is available,
+	 *         or cancelled when delivery is closed, at once if it already is and nothing is left queued
+	 */
+	protected CompletableFuture<byte[]> consumeAsync()
+	{
+		lock.lock();
+		try {
+			if (!unconsumed.isEmpty()) return CompletableFuture.completedFuture(dequeue());
+			if (deliveryClosed) {
+				return CompletableFuture.failedFuture(new CancellationException("Delivery closed."));
+			}
+			CompletableFuture<byte[]> waiter = new CompletableFuture<>();
+			waiters.addLast(waiter);
+			return waiter;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Return a payload taken by a consumer that gave up on it, e.g. a subscription cancelled
+	 * as its payload arrived. It goes to the next waiting consumer, or back to the head of the queue.
+	 */
+	protected void giveBack(byte[] payload)
+	{
+		CompletableFuture<byte[]> waiter;
+		lock.lock();
+		try {
+			do waiter = waiters.pollFirst();
+			while (waiter != null && waiter.isDone());
+			if (waiter == null) {
+				// Its source is unknown by now, so it is never coalesced
+				unconsumed.addFirst(new SimpleEntry<>(null, payload));
+				notEmpty.signal();
+				return;
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+		if (!waiter.complete(payload)) giveBack(payload);
+	}
+
+	/**
+	 * Cancel all pending asynchronous consumers, e.g. on leaving the group.
+	 */
+	protected void closeDelivery()
+	{
+		CompletableFuture<?>[] pending;
+		lock.lock();
+		try {
+			deliveryClosed = true;
+			pending = waiters.toArray(new CompletableFuture<?>[0]);
+			waiters.clear();
+		}
+		finally {
+			lock.unlock();
+		}
+		for (CompletableFuture<?> f : pending) {
+			f.completeExceptionally(new CancellationException("Delivery closed."));
+		}
 	}
 
 	protected long getTtl() {
 		return ttl;
 	}
 
-	protected Timer getUpdater() {
-		return updater;
+	/**
+	 * Stop the periodic removal.
+	 */
+	protected void close() {
+		updater.cancel(false);
+	}
+
+	public DeliveryStats getDeliveryStats() {
+		return new DeliveryStats(droppedOldest.get(), droppedNewest.get(), blocked.get(), coalesced.get());
 	}
 
 }
@@ -0,0 +1,130 @@
+package srm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * An append-only capture of raw datagrams passing through a socket.
+ *
+ * File format, big-endian, as a sequence of entries:
+ *  - 'H', UTF from: the capturing member, i.e. ${IpAddress}@${Port}@${Pid}
+ *  - 'S' or 'R', long epoch nanoseconds, int length, bytes: a datagram sent or received
+ */
+public class DatagramCapture implements Closeable
+{
+	public static final byte SENT = 'S';
+	public static final byte RECEIVED = 'R';
+	private static final byte HEADER = 'H';
+	private static final long FLUSH_PERIOD = 1000;   // in milliseconds
+
+	private final DataOutputStream out;
+	private final ScheduledFuture<?> flusher;
+
+	public DatagramCapture(String path, String from) throws IOException
+	{
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path, true), 1 << 16));
+		out.writeByte(HEADER);
+		out.writeUTF(from);
+		flusher = SrmEngine.getInstance().timers().scheduleAtFixedRate(
+				this::flush, FLUSH_PERIOD, FLUSH_PERIOD, TimeUnit.MILLISECONDS);
+	}
+
+	protected synchronized void record(byte direction, DatagramPacket p)
+	{
+		try {
+			out.writeByte(direction);
+			out.writeLong(ReliableMulticastSocket.epochNanos());
+			out.writeInt(p.getLength());
+			out.write(p.getData(), p.getOffset(), p.getLength());
+		}
+		catch (IOException e) {
+			ReliableMulticastSocket.logger.log(Level.WARNING, "Cannot capture a datagram.", e);
+		}
+	}
+
+	private synchronized void flush()
+	{
+		try {
+			out.flush();
+		}
+		catch (IOException e) {
+			ReliableMulticastSocket.logger.log(Level.WARNING, "Cannot flush the capture.", e);
+		}
+	}
+
+	@Override
+	public synchronized void close()
+	{
+		flusher.cancel(false);
+		try {
+			out.close();
+		}
+		catch (IOException e) {
+			ReliableMulticastSocket.logger.log(Level.WARNING, "Cannot close the capture.", e);
+		}
+	}
+
+	/**
+	 * One captured datagram.
+	 */
+	public record Datagram(byte direction, long nanos, byte[] data) {
+	}
+
+	/**
+	 * Sequential reader of a capture file.
+	 */
+	public static class Reader implements Closeable
+	{
+		private final DataInputStream in;
+		/** The capturing member of the latest header */
+		private String from;
+
+		public Reader(String path) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16));
+		}
+
+		/**
+		 * @return the next datagram; null at the end of the file
+		 */
+		public Datagram next() throws IOException
+		{
+			while (true) {
+				byte kind;
+				try {
+					kind = in.readByte();
+				}
+				catch (EOFException e) { return null; }
+				if (kind == HEADER) {
+					from = in.readUTF();
+					continue;
+				}
+				if (kind != SENT && kind != RECEIVED) throw new IOException("Corrupted capture.");
+				long nanos = in.readLong();
+				byte[] data = new byte[in.readInt()];
+				in.readFully(data);
+				return new Datagram(kind, nanos, data);
+			}
+		}
+
+		public String getFrom() {
+			return from;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+package srm;
+
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A publisher of delivered DATA payloads with demand-based backpressure.
+ * Nothing is taken from the delivery queue until a subscriber requests it,
+ * so undemanded payloads stay under the policy of the cache.
+ * Several subscribers share one queue, i.e. each payload goes to exactly one of them.
+ * Signals are issued on the given executor, never on the dispatcher thread.
+ */
+public class DeliveryPublisher implements Flow.Publisher<byte[]>
+{
+	private final DataCache cache;
+	private final Executor executor;
+
+	public DeliveryPublisher(DataCache cache, Executor executor) {
+		this.cache = cache;
+		this.executor = executor;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super byte[]> subscriber) {
+		Objects.requireNonNull(subscriber);
+		subscriber.onSubscribe(new DeliverySubscription(subscriber));
+	}
+
+	private class DeliverySubscription implements Flow.Subscription
+	{
+		final Flow.Subscriber<? super byte[]> subscriber;
+		final AtomicLong demand = new AtomicLong(0);
+		/** At most one payload is being fetched at a time, which also serializes onNext */
+		final AtomicBoolean fetching = new AtomicBoolean(false);
+		volatile boolean cancelled = false;
+		volatile CompletableFuture<byte[]> outstanding;
+
+		DeliverySubscription(Flow.Subscriber<? super byte[]> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n)
+		{
+			if (cancelled) return;
+			if (n <= 0) {
+				cancel();
+				executor.execute(() -> subscriber.onError(
+						new IllegalArgumentException("Non-positive request: " + n)));
+				return;
+			}
+			demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);   // Saturate on overflow
+			fetch();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			CompletableFuture<byte[]> f = outstanding;
+			if (f != null) f.cancel(false);
+		}
+
+		private void fetch()
+		{
+			if (cancelled || demand.get() == 0 || !fetching.compareAndSet(false, true)) return;
+			CompletableFuture<byte[]> f = cache.consumeAsync();
+			outstanding = f;
+			f.whenCompleteAsync((payload, e) -> {
+				if (cancelled) {
+					// Completed as the subscription was cancelled, the payload belongs to another consumer
+					if (e == null) cache.giveBack(payload);
+					return;
+				}
+				if (e != null) {
+					cancelled = true;
+					Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+					if (cause instanceof CancellationException) subscriber.onComplete();
+					else subscriber.onError(cause);
+					return;
+				}
+				demand.getAndUpdate(d -> d == Long.MAX_VALUE ? d : d - 1);
+				try {
+					subscriber.onNext(payload);
+				}
+				catch (Throwable t) {
+					cancel();
+					subscriber.onError(t);
+					return;
+				}
+				fetching.set(false);
+				fetch();
+			}, executor);
+		}
+	}
+
+}
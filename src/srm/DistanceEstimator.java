@@ -0,0 +1,46 @@
+package srm;
+
+/**
+ * Smoothed one-way distance to one source, with its mean deviation, from:
+ *
+ *   Jacobson, V. (1988). Congestion avoidance and control.
+ *   ACM SIGCOMM Computer Communication Review, 18(4), 314&ndash;329.
+ *
+ * Same gains as the TCP retransmission timer (RFC 6298), i.e. 1/8 for the mean and 1/4 for the deviation.
+ */
+public class DistanceEstimator
+{
+	private static final double G = 0.125;
+	private static final double H = 0.25;
+
+	/** In nanoseconds */
+	private double mean;
+	private double dev;
+
+	public DistanceEstimator(long sampleNanos) {
+		mean = Math.max(sampleNanos, 0);
+		dev = mean / 2;
+	}
+
+	public synchronized void update(long sampleNanos)
+	{
+		double err = Math.max(sampleNanos, 0) - mean;
+		mean += G * err;
+		dev += H * (Math.abs(err) - dev);
+	}
+
+	/**
+	 * Returns the smoothed distance, in milliseconds.
+	 */
+	public synchronized double mean() {
+		return mean / 1e6;
+	}
+
+	/**
+	 * Returns the smoothed distance plus k mean deviations, in milliseconds.
+	 */
+	public synchronized double bound(double k) {
+		return (mean + k * dev) / 1e6;
+	}
+
+}
@@ -0,0 +1,196 @@
+package srm;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Forward error correction over DATA streams with interleaved XOR parity.
+ * A block is k consecutive sequence numbers of one source, starting at 1 + n * k;
+ * parity j of the block covers the seqs whose offset in the block is j modulo m.
+ * A receiver can hence rebuild one loss per parity, i.e. up to m losses per block
+ * as long as they fall on different parities, without sending a REQUEST.
+ */
+public class FecCodec
+{
+	/** How many incomplete blocks are remembered for decoding */
+	private static final int MAX_PENDING_BLOCKS = 1024;
+
+	private final ReliableMulticastSocket socket;
+
+	/** Sender side, 0 if encoding is disabled */
+	private int k = 0;
+	private int m = 0;
+	/** Payloads of the block being sent, indexed by offset */
+	private byte[][] block;
+
+	/** Receiver side, parities received for blocks not yet complete, by ${whose}-${first} */
+	private final Map<String, List<Message.ParityBody>> pending = new LinkedHashMap<>();
+
+	private final AtomicLong parityReceived = new AtomicLong(0);
+	private final AtomicLong recovered = new AtomicLong(0);
+	private final AtomicLong recoveredWithoutNack = new AtomicLong(0);
+
+	/**
+	 * @param parityReceived PARITY messages received
+	 * @param recovered DATA rebuilt from parity
+	 * @param recoveredWithoutNack DATA rebuilt before any REQUEST for it was multicast
+	 */
+	public record FecStats(long parityReceived, long recovered, long recoveredWithoutNack) {
+		/** Fraction of rebuilt DATA that needed no REQUEST at all */
+		public double recoveryWithoutNackRate() {
+			return recovered == 0 ? 0 : (double) recoveredWithoutNack / recovered;
+		}
+	}
+
+	public FecCodec(ReliableMulticastSocket socket) {
+		this.socket = socket;
+	}
+
+	/**
+	 * Enable encoding of m parities per k DATA; both 0 disables it.
+	 */
+	protected synchronized void setEncoding(int k, int m)
+	{
+		if (k < 0 || m < 0 || (k == 0) != (m == 0) || m > k) {
+			throw new IllegalArgumentException("Expect 0 < m <= k, or both 0.");
+		}
+		this.k = k;
+		this.m = m;
+		block = k > 0 ? new byte[k][] : null;
+	}
+
+	/**
+	 * Record a DATA just sent.
+	 *
+	 * @return parities to multicast if seq completes a block of which every DATA was recorded; empty otherwise
+	 */
+	protected synchronized List<Message.ParityBody> onSent(long seq, byte[] payload)
+	{
+		List<Message.ParityBody> parities = new ArrayList<>();
+		if (k == 0) return parities;
+		int offset = (int) ((seq - 1) % k);
+		block[offset] = payload;
+		if (offset < k - 1) return parities;
+
+		byte[][] full = block;
+		block = new byte[k][];
+		// A block only partly recorded, e.g. with encoding turned on in its middle, is never encoded:
+		// receivers XOR every seq of the block they have, so a parity missing one would rebuild wrong bytes
+		for (byte[] sent : full) {
+			if (sent == null) return parities;
+		}
+		long first = seq - k + 1;
+		int[] lengths = new int[k];
+		for (int i = 0; i < k; i++) lengths[i] = full[i].length;
+		for (int j = 0; j < m; j++) {
+			byte[] parity = new byte[0];
+			for (int i = j; i < k; i += m) parity = xor(parity, full[i]);
+			parities.add(new Message.ParityBody(first, k, m, j, lengths, parity));
+		}
+		return parities;
+	}
+
+	/**
+	 * Keep a received parity, then attempt recovery of its block.
+	 *
+	 * @return rebuilt DATA messages, to be dispatched as if received
+	 */
+	protected synchronized List<Message> onParity(String from, Message.ParityBody body)
+	{
+		parityReceived.incrementAndGet();
+		if (body.k <= 0 || body.m <= 0 || body.j < 0 || body.j >= body.m
+				|| body.lengths == null || body.lengths.length != body.k) {
+			return List.of();
+		}
+		String key = from+"-"+body.first;
+		pending.computeIfAbsent(key, x -> new ArrayList<>()).add(body);
+		// Bounded memory, forget the oldest blocks
+		Iterator<String> it = pending.keySet().iterator();
+		while (pending.size() > MAX_PENDING_BLOCKS && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+		return recover(from, key);
+	}
+
+	/**
+	 * Attempt recovery of the block a received DATA belongs to, if its parity arrived earlier.
+	 */
+	protected synchronized List<Message> onData(String from, long seq)
+	{
+		if (pending.isEmpty()) return List.of();
+		for (String key : pending.keySet()) {
+			List<Message.ParityBody> parities = pending.get(key);
+			Message.ParityBody any = parities.get(0);
+			if (key.startsWith(from+"-") && seq >= any.first && seq < any.first + any.k) {
+				return recover(from, key);
+			}
+		}
+		return List.of();
+	}
+
+	/**
+	 * Rebuild every covered seq that is the only one missing under its parity.
+	 */
+	private List<Message> recover(String from, String key)
+	{
+		List<Message.ParityBody> parities = pending.get(key);
+		List<Message> rebuilt = new ArrayList<>();
+		boolean complete = true;
+		for (Message.ParityBody p : parities) {
+			long missing = -1;
+			int nMissing = 0;
+			byte[] payload = p.parity;
+			for (int i = p.j; i < p.k; i += p.m) {
+				var entry = socket.cache.get(from, p.first + i);
+				if (entry == null) {
+					missing = p.first + i;
+					nMissing++;
+				}
+				else payload = xor(payload, entry.getKey());
+			}
+			if (nMissing == 1) {
+				byte[] data = new byte[p.lengths[(int) (missing - p.first)]];
+				System.arraycopy(payload, 0, data, 0, Math.min(data.length, payload.length));
+				rebuilt.add(new Message(missing, from, Type.DATA, data));
+			}
+			else if (nMissing > 1) complete = false;
+		}
+		if (complete) pending.remove(key);
+		return rebuilt;
+	}
+
+	/**
+	 * Count a rebuilt DATA once it has filled a gap, which it does not if dispatch drops it.
+	 *
+	 * @param nacked whether a request was multicast for it before it was rebuilt
+	 */
+	protected void countRecovery(String whose_seq, boolean nacked)
+	{
+		recovered.incrementAndGet();
+		if (!nacked) recoveredWithoutNack.incrementAndGet();
+		ReliableMulticastSocket.logger.info("Recovered <"+whose_seq+"> from parity.");
+		socket.trace(Tracer.Event.FEC_RECOVERED, whose_seq, null);
+	}
+
+	protected FecStats getStats() {
+		return new FecStats(parityReceived.get(), recovered.get(), recoveredWithoutNack.get());
+	}
+
+	/**
+	 * XOR of two byte arrays, the shorter one padded with zeros.
+	 */
+	private static byte[] xor(byte[] a, byte[] b)
+	{
+		byte[] out = new byte[Math.max(a.length, b.length)];
+		for (int i = 0; i < out.length; i++) {
+			out[i] = (byte) ((i < a.length ? a[i] : 0) ^ (i < b.length ? b[i] : 0));
+		}
+		return out;
+	}
+
+}
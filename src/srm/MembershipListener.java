@@ -0,0 +1,26 @@
+package srm;
+
+/**
+ * Receives membership changes of a group, as detected by StateTable.
+ * Called on the dispatcher or timer thread, hence should return quickly.
+ */
+@FunctionalInterface
+public interface MembershipListener
+{
+	enum Kind
+	{
+		/** First heard from directly, or heard again after leaving */
+		JOIN,
+		/** Silent for longer than usual */
+		SUSPECT,
+		/** Heard again while suspected */
+		ALIVE,
+		/** Considered gone; its states, cache and timers are pruned */
+		LEAVE
+	}
+
+	/**
+	 * @param member the source, i.e. ${IpAddress}@${Port}@${Pid}
+	 */
+	void onMembership(Kind kind, String member);
+}
@@ -20,16 +20,28 @@ public class Message
 	 *  - DATA: byte(payload)
 	 *  - SESSION: byte(toJson([t, StateTable::getViewingPage]))
 	 *  - REQUEST: byte(toJson([${whose}-${seq}, distToSrc]))
-	 *  - REPAIR:  byte(toJson([${whose}-${seq}, byte(payload)])) */
+	 *  - REPAIR:  byte(toJson([${whose}-${seq}, byte(payload)]))
+	 *  - PARITY:  byte(toJson([first, k, m, j, lengths, byte(parity)]))
+	 *  - SNAPSHOT_REQUEST: byte(toJson([attempt]))
+	 *  - SNAPSHOT: byte(toJson([requester, {from: seq}, byte(state)])) */
 	private final byte[] body;
 
+	/** Optional slice of the sender's states piggybacked on DATA:
+	 *  {from: highest seq}; null if absent */
+	private final Map<String, Long> digest;
+
+	/** Body as parsed on receipt, one of the classes below by type; null for DATA and SNAPSHOT_REQUEST. Never sent */
+	private transient Object parsedBody;
+
 	protected static class SessionBody
 	{
-		String t;   // LocalTime.toString()
+		String t;   // LocalTime.toString(), kept for older members
+		Long tn;    // Epoch time in nanoseconds
 		Map<String, Long[]> view;
 
-		public SessionBody(String t, Map<String, Long[]> view) {
+		public SessionBody(String t, Long tn, Map<String, Long[]> view) {
 			this.t = t;
+			this.tn = tn;
 			this.view = view;
 		}
 	}
@@ -59,11 +71,64 @@ public class Message
 		}
 	}
 
+	protected static class ParityBody
+	{
+		/** The first seq of the block */
+		long first;
+		/** DATA per block, and parities per block */
+		int k, m;
+		/** This parity covers offsets j, j + m, j + 2m, ... of the block */
+		int j;
+		/** Payload length of each DATA in the block */
+		int[] lengths;
+		/** XOR of the covered payloads, zero-padded to the longest */
+		byte[] parity;
+
+		public ParityBody(long first, int k, int m, int j, int[] lengths, byte[] parity) {
+			this.first = first;
+			this.k = k;
+			this.m = m;
+			this.j = j;
+			this.lengths = lengths;
+			this.parity = parity;
+		}
+	}
+
+	protected static class SnapshotRequestBody
+	{
+		/** Counts from 1 for each joiner's request */
+		int attempt;
+
+		public SnapshotRequestBody(int attempt) {
+			this.attempt = attempt;
+		}
+	}
+
+	protected static class SnapshotBody
+	{
+		/** Whom the snapshot answers */
+		String requester;
+		/** {from: highest seq} the state reflects */
+		Map<String, Long> vector;
+		byte[] state;
+
+		public SnapshotBody(String requester, Map<String, Long> vector, byte[] state) {
+			this.requester = requester;
+			this.vector = vector;
+			this.state = state;
+		}
+	}
+
 	public Message(long seq, String from, Type type, byte[] body) {
+		this(seq, from, type, body, null);
+	}
+
+	public Message(long seq, String from, Type type, byte[] body, Map<String, Long> digest) {
 		this.seq = seq;
 		this.from = from;
 		this.type = type;
 		this.body = body;
+		this.digest = digest;
 	}
 
 	protected long getSeq() {
@@ -82,6 +147,18 @@ public class Message
 		return body;
 	}
 
+	protected Map<String, Long> getDigest() {
+		return digest;
+	}
+
+	protected Object getParsedBody() {
+		return parsedBody;
+	}
+
+	protected void setParsedBody(Object parsedBody) {
+		this.parsedBody = parsedBody;
+	}
+
 	@Override
 	public String toString() {
 		return "Message{" +
@@ -0,0 +1,72 @@
+package srm;
+
+/**
+ * The phi accrual failure detector of one member, from:
+ *
+ *   Hayashibara, N., Defago, X., Yared, R., & Katayama, T. (2004).
+ *   The phi accrual failure detector. SRDS 2004, 66&ndash;78.
+ *
+ * Inter-arrival times over a sliding window are assumed exponentially distributed,
+ * which gives phi = elapsed / mean * log10(e).
+ * Only SESSION heartbeats are sampled, as DATA comes in bursts and pauses that say nothing
+ * of when the member would be heard of next; DATA only shows the member is alive at that moment.
+ */
+public class PhiAccrualDetector
+{
+	private static final int WINDOW = 32;
+	/** Floor of the mean interval, no member sending SESSION more often than SESSION_RATE_MIN */
+	private static final double MIN_INTERVAL_MILLIS = ReliableMulticastSocket.SESSION_RATE_MIN * 1000.0;
+
+	private final double[] intervals = new double[WINDOW];
+	private int n = 0;
+	private int next = 0;
+	private double sum = 0;
+	/** Last heartbeat, and last arrival of anything */
+	private long lastHeartbeat;
+	private long last;
+
+	/**
+	 * @param initialIntervalMillis assumed interval until the first two arrivals
+	 */
+	public PhiAccrualDetector(double initialIntervalMillis) {
+		last = lastHeartbeat = System.nanoTime();
+		add(initialIntervalMillis);
+	}
+
+	/**
+	 * A SESSION arrived, sampling the interval since the previous one.
+	 */
+	public synchronized void heartbeat()
+	{
+		long now = System.nanoTime();
+		add((now - lastHeartbeat) / 1e6);
+		last = lastHeartbeat = now;
+	}
+
+	/**
+	 * Anything else arrived from the member, e.g. DATA: phi restarts from here, without a sample.
+	 */
+	public synchronized void alive() {
+		last = System.nanoTime();
+	}
+
+	private void add(double interval)
+	{
+		if (n == WINDOW) sum -= intervals[next];
+		else n++;
+		intervals[next] = interval;
+		sum += interval;
+		next = (next + 1) % WINDOW;
+	}
+
+	/**
+	 * Returns the suspicion level at this moment.
+	 */
+	public synchronized double phi()
+	{
+		double mean = Math.max(sum / n, MIN_INTERVAL_MILLIS);
+		double elapsed = (System.nanoTime() - last) / 1e6;
+		return elapsed / mean * Math.log10(Math.E);
+	}
+
+}
@@ -2,71 +2,312 @@ package srm;
 
 import com.google.gson.JsonSyntaxException;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
-import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Future;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 
 /**
- * A background thread which receives all datagram packet from the socket,
+ * A background loop which receives all datagram packet from the socket,
  * creates and dispatches tasks to handle them differently.
+ *
+ * Optionally runs as a pipeline instead: this thread only reads the socket,
+ * decoder threads parse in parallel, and dispatcher threads each handle the sources hashed to them,
+ * so that a slow decode, e.g. of a large SESSION, does not hold back DATA of other sources.
+ * A source is the data source a state, request or repair is about, not the member that sent it:
+ * a REQUEST or REPAIR goes to the owner of its whose_seq, and each dispatcher only applies
+ * the entries of digests and SESSION views about its own sources. Each source's state is hence
+ * only touched by one thread, as with a single dispatcher.
+ * Stages hand over through single-producer rings over frames allocated once; order per source is kept.
  */
-public class ReceiverDispatcher extends Thread
+public class ReceiverDispatcher implements Runnable
 {
+	/** Slots of each ring between decoders and dispatchers */
+	private static final int RING_CAPACITY = 1024;
+	/** Datagram buffers of each decoder, reused once decoded */
+	private static final int FRAMES = 64;
+	/** Passed to every dispatcher but the one owning the source, to keep all in step */
+	private static final Message SKIP = new Message(0, null, null, null);
+
 	private final ReliableMulticastSocket socket;
+	/** Pipeline stage counts; 0 decoders to read, decode and dispatch on one thread alone */
+	private final int decoders;
+	private final int dispatchers;
+
+	// A UDP datagram is carried in a single IP packet, and is hence
+	// limited to a maximum payload of 65,507 bytes for IPv4 and 65,527 bytes for IPv6.
+	private final byte[] buffer = new byte[65507];
 
 	public ReceiverDispatcher(ReliableMulticastSocket socket) {
+		this(socket, 0, 0);
+	}
+
+	public ReceiverDispatcher(ReliableMulticastSocket socket, int decoders, int dispatchers) {
 		this.socket = socket;
+		this.decoders = decoders;
+		this.dispatchers = dispatchers;
 	}
 
 	public void run() {
-		while (!interrupted()) {
+		if (decoders > 0) {
+			runPipeline();
+			return;
+		}
+		while (!Thread.interrupted()) {
 			Message msg = receive();
-			if (msg != null) dispatch(msg);
+			if (msg != null) dispatch(msg, source -> true);
 		}
 	}
 
 	/**
 	 * Receive the next message in the valid format.
-	 * Skip all SESSION/REQUEST/REPAIR loopback.
 	 *
 	 * @return message; null if IOException occurs
 	 */
 	private Message receive()
 	{
-		// A UDP datagram is carried in a single IP packet, and is hence
-		// limited to a maximum payload of 65,507 bytes for IPv4 and 65,527 bytes for IPv6.
-		DatagramPacket p = new DatagramPacket(new byte[65507], 65507);
-		Message msg;
+		DatagramPacket p = new DatagramPacket(buffer, buffer.length);
+		while (true) {
+			if (!read(p)) return null;
+//			if (Math.random() > 0.9) return null;
+			Message msg = decode(p.getData(), p.getLength());
+			if (msg != null) return msg;
+		}
+	}
+
+	/**
+	 * @return false if IOException occurs, which also interrupts the current thread.
+	 * An EOFException is the transport running out of input, e.g. a replayed capture, and is no error
+	 */
+	private boolean read(DatagramPacket p)
+	{
 		try {
+			p.setLength(p.getData().length);
 			socket._receive(p);
-//			if (Math.random() > 0.9) return null;
-			msg = ReliableMulticastSocket.gson.fromJson(
-					new String(p.getData(), 0, p.getLength()), Message.class);
+			return true;
+		}
+		catch (EOFException e) {
+			ReliableMulticastSocket.logger.fine("End of input.");
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		catch (IOException e) {
+			ReliableMulticastSocket.logger.log(Level.WARNING, "Socket cannot receive.", e);
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Parse a datagram, and its typed body once for all the dispatchers it goes to. Skip all SESSION/REQUEST/REPAIR loopback.
+	 *
+	 * @return message; null if not in the valid format, or loopback
+	 */
+	private Message decode(byte[] data, int length)
+	{
+		try {
+			Message msg = ReliableMulticastSocket.gson.fromJson(new String(data, 0, length), Message.class);
 			if (msg == null || msg.getFrom() == null || msg.getType() == null
 					|| msg.getBody() == null) {
 				throw new JsonSyntaxException("Null in message.");
 			}
 			switch (msg.getType()) {
-			case SESSION, REQUEST, REPAIR -> {
+			case SESSION, REQUEST, REPAIR, PARITY, SNAPSHOT_REQUEST, SNAPSHOT -> {
 				if (msg.getFrom().equals(socket.getFrom())) throw new LoopbackException();
 			}
 			}
+			msg.setParsedBody(parseBody(msg));
 			ReliableMulticastSocket.logger.info("Received "+msg.getType().name()+".");
 			return msg;
 		}
-		catch (IOException e) {
-			ReliableMulticastSocket.logger.log(Level.WARNING, "Socket cannot receive.", e);
-			currentThread().interrupt();
+		catch (JsonSyntaxException | LoopbackException e) {
 			return null;
 		}
-		// Receives the next
-		catch (JsonSyntaxException | LoopbackException e) {
-			return receive();
+	}
+
+	/**
+	 * @return the typed body of a SESSION/REQUEST/REPAIR/PARITY/SNAPSHOT; null for other types, whose body is used as is
+	 * @throws JsonSyntaxException if the body is not in the valid format
+	 */
+	private static Object parseBody(Message msg)
+	{
+		switch (msg.getType()) {
+		case SESSION -> {
+			Message.SessionBody body = parse(msg, Message.SessionBody.class);
+			if (body != null && (body.tn != null || body.t != null) && body.view != null) return body;
+		}
+		case REQUEST -> {
+			Message.RequestBody body = parse(msg, Message.RequestBody.class);
+			if (body != null && body.whose_seq != null) return body;
+		}
+		case REPAIR -> {
+			Message.RepairBody body = parse(msg, Message.RepairBody.class);
+			if (body != null && body.whose_seq != null && body.payload != null) return body;
+		}
+		case PARITY -> {
+			Message.ParityBody body = parse(msg, Message.ParityBody.class);
+			if (body != null && body.parity != null) return body;
+		}
+		case SNAPSHOT -> {
+			Message.SnapshotBody body = parse(msg, Message.SnapshotBody.class);
+			if (body != null && body.requester != null && body.state != null) return body;
+		}
+		default -> { return null; }
+		}
+		throw new JsonSyntaxException("Null in body.");
+	}
+
+	private static <T> T parse(Message msg, Class<T> type) {
+		return ReliableMulticastSocket.gson.fromJson(new String(msg.getBody()), type);
+	}
+
+	/** A datagram read, handed to a decoder and back */
+	private static class Frame {
+		final byte[] data = new byte[65507];
+		int length;
+	}
+
+	/**
+	 * Read on the current thread, and feed decoders round-robin.
+	 * Each decoder emits exactly one item per datagram to every dispatcher, the message or SKIP,
+	 * and each dispatcher takes from decoders in the same round-robin order,
+	 * hence sees its messages in the order they were read.
+	 */
+	private void runPipeline()
+	{
+		List<SpscRing<Frame>> toDecode = new ArrayList<>();
+		List<SpscRing<Frame>> free = new ArrayList<>();
+		List<List<SpscRing<Message>>> toDispatch = new ArrayList<>();
+		for (int j = 0; j < dispatchers; j++) toDispatch.add(new ArrayList<>());
+		for (int d = 0; d < decoders; d++) {
+			toDecode.add(new SpscRing<>(FRAMES));
+			SpscRing<Frame> frames = new SpscRing<>(FRAMES);
+			for (int i = 0; i < FRAMES; i++) frames.offer(new Frame());
+			free.add(frames);
+			for (int j = 0; j < dispatchers; j++) toDispatch.get(j).add(new SpscRing<>(RING_CAPACITY));
+		}
+		Thread[] stages = new Thread[decoders + dispatchers];
+		for (int d = 0; d < decoders; d++) {
+			SpscRing<Frame> in = toDecode.get(d);
+			SpscRing<Frame> out = free.get(d);
+			int decoder = d;
+			stages[d] = stage("srm-decode-"+d, () -> {
+				Frame frame = in.take();
+				Message msg = decode(frame.data, frame.length);
+				out.put(frame);   // Decoded into a String, so the buffer can be read into again
+				boolean[] owners = owners(msg);
+				for (int j = 0; j < dispatchers; j++) toDispatch.get(j).get(decoder).put(owners[j] ? msg : SKIP);
+			});
+		}
+		for (int j = 0; j < dispatchers; j++) {
+			List<SpscRing<Message>> in = toDispatch.get(j);
+			int dispatcher = j;
+			Predicate<String> owns = source -> owner(source) == dispatcher;
+			int[] next = {0};
+			stages[decoders + j] = stage("srm-dispatch-"+j, () -> {
+				Message msg = in.get(next[0]).take();
+				next[0] = (next[0] + 1) % decoders;
+				if (msg != SKIP) dispatch(msg, owns);
+			});
+		}
+		for (Thread t : stages) t.start();
+
+		DatagramPacket p = new DatagramPacket(buffer, buffer.length);
+		try {
+			for (long n = 0; !Thread.interrupted(); n++) {
+				int d = (int) (n % decoders);
+				Frame frame = free.get(d).take();
+				p.setData(frame.data);
+				if (!read(p)) break;
+				frame.length = p.getLength();
+				toDecode.get(d).put(frame);
+			}
+		}
+		catch (InterruptedException ignored) {
+		}
+		finally {
+			for (Thread t : stages) t.interrupt();
+		}
+	}
+
+	/**
+	 * Returns the source of ${whose}-${seq}.
+	 */
+	private static String whose(String whose_seq) {
+		int dash = whose_seq.lastIndexOf('-');
+		return dash >= 0 ? whose_seq.substring(0, dash) : whose_seq;
+	}
+
+	private int owner(String source) {
+		return Math.floorMod(source.hashCode(), dispatchers);
+	}
+
+	/**
+	 * Returns which dispatchers have something to do with a message: the owner of the source it is about,
+	 * and the owners of the sources in its digest. Every dispatcher for a SESSION, whose view may tell of any.
+	 */
+	private boolean[] owners(Message msg)
+	{
+		boolean[] owners = new boolean[dispatchers];
+		if (msg == null) return owners;
+		if (msg.getType() == Type.SESSION) {
+			Arrays.fill(owners, true);
+			return owners;
+		}
+		String source = switch (msg.getType()) {
+		case REQUEST -> whose(((Message.RequestBody) msg.getParsedBody()).whose_seq);
+		case REPAIR -> whose(((Message.RepairBody) msg.getParsedBody()).whose_seq);
+		default -> msg.getFrom();
+		};
+		owners[owner(source)] = true;
+		if (msg.getDigest() != null) {
+			for (String from : msg.getDigest().keySet()) {
+				if (from != null) owners[owner(from)] = true;
+			}
+		}
+		return owners;
+	}
+
+	private interface Step {
+		void run() throws InterruptedException;
+	}
+
+	/**
+	 * A daemon thread repeating one step of the pipeline until interrupted.
+	 */
+	private Thread stage(String name, Step step)
+	{
+		Thread t = SrmEngine.getInstance().newThread(name, () -> {
+			try {
+				while (!Thread.interrupted()) step.run();
+			}
+			catch (InterruptedException ignored) {
+			}
+		});
+		t.setDaemon(true);
+		return t;
+	}
+
+	/**
+	 * Update the highest seq known of a source, and submit REQUEST for every seq beyond the old one.
+	 * Only called by the dispatcher owning the source.
+	 */
+	private void detectLoss(String from, long seq)
+	{
+		Long oldSeq = socket.states.update(from, seq, null);
+		if (oldSeq != null) {
+			for (long i = oldSeq + 1; i <= seq; i++) {
+				socket.trace(Tracer.Event.GAP_DETECTED, from, i, null);
+				socket.pool.request(from+"-"+i);
+			}
 		}
 	}
 
@@ -74,65 +315,117 @@ public class ReceiverDispatcher extends Thread
 		LoopbackException() { super(); }
 	}
 
+	/**
+	 * Handle a DATA rebuilt from parity as received, counting it as recovered only if it was delivered.
+	 */
+	private void dispatchRebuilt(Message rebuilt, Predicate<String> owns)
+	{
+		String whose_seq = rebuilt.getFrom()+"-"+rebuilt.getSeq();
+		// Checked first, since delivering cancels the request
+		boolean nacked = socket.pool.requestsSent(whose_seq) > 0;
+		dispatch(rebuilt, owns);
+		if (socket.cache.get(rebuilt.getFrom(), rebuilt.getSeq()) != null) socket.fec.countRecovery(whose_seq, nacked);
+	}
+
 	/**
 	 * Dispatch different tasks corresponding to the message type.
 	 *
 	 * @param msg the received message
+	 * @param owns whether this dispatcher handles a source; the rest of msg is left to other dispatchers
 	 */
-	private void dispatch(Message msg)
+	private void dispatch(Message msg, Predicate<String> owns)
 	{
+		// Any message may piggyback states of other sources
+		if (msg.getDigest() != null) {
+			for (var d : msg.getDigest().entrySet()) {
+				if (d.getKey() != null && d.getValue() != null
+						&& !d.getKey().equals(socket.getFrom()) && !socket.states.isDeparted(d.getKey())
+						&& owns.test(d.getKey())) {
+					detectLoss(d.getKey(), d.getValue());
+				}
+			}
+		}
 		switch (msg.getType())
 		{
+		// 0. Feed the failure detector of the source
 		// 1. Update states
 		// 2. Cancel a request in pool if there is
 		// 3. If any loss detected, submit REQUEST via pool
 		// 4. Put cache if DATA payload was never received
 		case DATA -> {
+			if (!owns.test(msg.getFrom())) return;
+			if (!msg.getFrom().equals(socket.getFrom())) socket.states.heard(msg.getFrom(), false);
+			socket.trace(Tracer.Event.RECEIVED, msg.getFrom(), msg.getSeq(), msg.getFrom());
 			Long oldSeq = socket.states.update(msg.getFrom(), msg.getSeq(), null);
 			String whose_seq = msg.getFrom()+"-"+msg.getSeq();
 			if (oldSeq != null) {
-				if (socket.pool.requests.containsKey(whose_seq)) {
+				if (socket.pool.hasRequest(whose_seq)) {
 					socket.pool.cancelRequest(whose_seq);
 				}
 				else if (msg.getSeq() <= oldSeq) return;
 				for (long i = oldSeq + 1; i < msg.getSeq(); i++) {
+					socket.trace(Tracer.Event.GAP_DETECTED, msg.getFrom(), i, null);
 					socket.pool.request(msg.getFrom()+"-"+i);
 				}
 			}
-			socket.cache.put(whose_seq, msg.getBody());
+			socket.cache.put(msg.getFrom(), msg.getSeq(), msg.getBody());
+			socket.trace(Tracer.Event.DELIVERED, whose_seq, msg.getFrom());
+			// Parity of this block may now be enough to rebuild others
+			for (Message rebuilt : socket.fec.onData(msg.getFrom(), msg.getSeq())) dispatchRebuilt(rebuilt, owns);
 		}
 
+		// Rebuild DATA covered by the parity if only one is missing, then handle it as received
+		case PARITY -> {
+			if (!owns.test(msg.getFrom())) return;
+			Message.ParityBody body = (Message.ParityBody) msg.getParsedBody();
+			for (Message rebuilt : socket.fec.onParity(msg.getFrom(), body)) dispatchRebuilt(rebuilt, owns);
+		}
+
+		// Answer a late joiner if a snapshot is published, after a back-off
+		case SNAPSHOT_REQUEST -> {
+			if (owns.test(msg.getFrom())) socket.snapshots.onRequest(msg.getFrom());
+		}
+
+		// Suppress own answer to the same joiner; apply the snapshot if this member asked for it
+		case SNAPSHOT -> {
+			if (owns.test(msg.getFrom())) socket.snapshots.onSnapshot((Message.SnapshotBody) msg.getParsedBody());
+		}
+
+		// 0. Feed the failure detector of the source
 		// 1. Estimate one-way distances to other active sources
 		// 2. Compare view with states and update states
 		// 3. If any loss detected, submit REQUEST via pool
 		case SESSION -> {
-			long dist;   // t34
-			Map<String, Long[]> view;
-			try {
-				Message.SessionBody body = ReliableMulticastSocket.gson.fromJson(
-						new String(msg.getBody()), Message.SessionBody.class);
-				if (body != null && body.t != null && body.view != null) {
-					dist = ChronoUnit.MILLIS.between(LocalTime.parse(body.t), LocalTime.now());
-					view = body.view;
+			Message.SessionBody body = (Message.SessionBody) msg.getParsedBody();
+			long dist;   // t34, in nanoseconds
+			Map<String, Long[]> view = body.view;
+			if (body.tn != null) dist = socket.clockNanos() - body.tn;
+			else {
+				try {
+					dist = ChronoUnit.NANOS.between(LocalTime.parse(body.t), LocalTime.now());
 				}
-				else return;
+				catch (DateTimeParseException e) { return; }
 			}
-			catch (JsonSyntaxException e) { return; }
+			// The sender's own state is its owner's; each entry of the view is its source's owner's
+			boolean sender = owns.test(msg.getFrom());
+			if (sender) socket.states.heard(msg.getFrom(), true);
 			for (var v : view.entrySet())
 			{
 				String from = v.getKey();
-				if (from != null && v.getValue() != null) {
+				if (from != null && v.getValue() != null && !socket.states.isDeparted(from)) {
 					Long seq = v.getValue()[0];
 					if (seq != null) {
-						Long _dist = null;   // t12
-						if (from.equals(socket.getFrom())) _dist = v.getValue()[1];
-						if (_dist != null) _dist = (_dist + dist) / 2;
-						Long oldSeq = socket.states.update(from, seq, _dist);
-						if (oldSeq != null) {
-							for (long i = oldSeq + 1; i <= seq; i++) {
-								socket.pool.request(v.getKey()+"-"+i);
+						// t12, as measured by the sender from our SESSION; the clock offset
+						// cancels out by averaging with t34
+						if (from.equals(socket.getFrom()) && sender) {
+							Long _dist = null;
+							if (v.getValue().length > 2 && v.getValue()[2] != null) _dist = v.getValue()[2];
+							else if (v.getValue().length > 1 && v.getValue()[1] != null) {
+								_dist = v.getValue()[1] * 1_000_000;
 							}
+							if (_dist != null) socket.states.sampleDistance(msg.getFrom(), (_dist + dist) / 2);
 						}
+						if (owns.test(from)) detectLoss(from, seq);
 					}
 				}
 			}
@@ -140,38 +433,22 @@ public class ReceiverDispatcher extends Thread
 			// - Case 1: never heard about x from others, i.e. no states, then inserts new;
 			// - Case 2: heard from others, or received its DATA, i.e. seq already set up, then sets distance only.
 			// Either can be handled by StateTable::update.
-			socket.states.update(msg.getFrom(), 0, dist);
+			if (sender) socket.states.update(msg.getFrom(), 0, dist);
 		}
 
 		// 1. If repair in pool, stop and do nothing
 		// 2. Attempt to postpone a request in pool if there is; and update dup count and closest distance
 		// 3. Otherwise, if DATA payload found in cache, submit REPAIR via pool
 		case REQUEST -> {
-			String whose_seq;
-			Long distToSrc;
-			try {
-				Message.RequestBody body = ReliableMulticastSocket.gson.fromJson(
-						new String(msg.getBody()), Message.RequestBody.class);
-				if (body != null && body.whose_seq != null) {
-					whose_seq = body.whose_seq;
-					distToSrc = body.distToSrc;
-				}
-				else return;
-			}
-			catch (JsonSyntaxException e) { return; }
+			Message.RequestBody body = (Message.RequestBody) msg.getParsedBody();
+			String whose_seq = body.whose_seq;
+			Long distToSrc = body.distToSrc;
+			if (!owns.test(whose(whose_seq))) return;
 
-			if (!socket.pool.repairs.containsKey(whose_seq))
+			if (!socket.pool.hasRepair(whose_seq))
 			{
-				if (socket.pool.requests.containsKey(whose_seq)) {
-					socket.pool.postponeRequest(whose_seq);
-					AbstractMap.SimpleEntry<RequestRepairPool.RequestTask, Future<?>> pair =
-							socket.pool.requests.get(whose_seq);
-					if (pair != null) {
-						pair.getKey().req_dup ++;   // Tell duplicates
-						if (distToSrc != null) {    // Update closest distance
-							pair.getKey().min_dist = Math.min(pair.getKey().min_dist, distToSrc);
-						}
-					}
+				if (socket.pool.hasRequest(whose_seq)) {
+					socket.pool.duplicateRequest(whose_seq, distToSrc);
 				}
 				else socket.pool.repair(whose_seq);
 			}
@@ -180,20 +457,15 @@ public class ReceiverDispatcher extends Thread
 		// 1. Cancel a request in pool if there is, then put cache
 		// 2. Cancel a repair in pool if there is
 		case REPAIR -> {
-			String whose_seq;
-			byte[] payload;
-			try {
-				Message.RepairBody body = ReliableMulticastSocket.gson.fromJson(
-						new String(msg.getBody()), Message.RepairBody.class);
-				if (body != null && body.whose_seq != null && body.payload != null) {
-					whose_seq = body.whose_seq;
-					payload = body.payload;
-				} else return;
-			}
-			catch (JsonSyntaxException e) { return; }
+			Message.RepairBody body = (Message.RepairBody) msg.getParsedBody();
+			String whose_seq = body.whose_seq;
+			byte[] payload = body.payload;
+			if (!owns.test(whose(whose_seq))) return;
 
-			if (socket.pool.requests.containsKey(whose_seq)) {
+			socket.trace(Tracer.Event.REPAIR_RECEIVED, whose_seq, msg.getFrom());
+			if (socket.pool.hasRequest(whose_seq)) {
 				socket.cache.put(whose_seq, payload);
+				socket.trace(Tracer.Event.DELIVERED, whose_seq, msg.getFrom());
 			}
 			socket.pool.cancelRequest(whose_seq);
 			socket.pool.cancelRepair(whose_seq);
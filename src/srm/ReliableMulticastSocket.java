@@ -5,9 +5,20 @@ import com.google.gson.GsonBuilder;
 
 import java.io.IOException;
 import java.net.*;
+import java.time.Instant;
 import java.time.LocalTime;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.*;
 
@@ -38,7 +49,23 @@ public class ReliableMulticastSocket extends MulticastSocket
 	private long sessionRate;
 	protected static final long SESSION_RATE_MAX = 10;
 	protected static final long SESSION_RATE_MIN = 1;
-	private Timer sessionSender;
+	/** The session rate when piggybacked digests already spread the states;
+	 *  SESSION is still needed for distance estimation. */
+	protected static final long SESSION_RATE_PIGGYBACKED_MAX = 30;
+	private volatile ScheduledFuture<?> sessionSender;
+
+	/** How often members' failure detectors are evaluated, in milliseconds */
+	protected static final long MEMBERSHIP_CHECK_PERIOD = 500;
+	private ScheduledFuture<?> membershipChecker;
+	private final List<MembershipListener> membershipListeners = new CopyOnWriteArrayList<>();
+	private double suspectPhi = 3;
+	private double leavePhi = 8;
+
+	/** Timer settings, see setDistanceEstimation */
+	private double deviationFactor = 4;
+	protected volatile long minTimer = 10;
+	/** Randomization of request, repair and snapshot timers, see setTimerSeed */
+	private volatile Random timerRandom = new Random();
 
 	/** The aggregate bandwidth in bytes (regardless of headers' overhead),
 	 *  since from the last session message. */
@@ -46,12 +73,35 @@ public class ReliableMulticastSocket extends MulticastSocket
 	/** The session bandwidth. */
 	private final AtomicInteger sessionBW = new AtomicInteger(0);
 
+	/** How many sources each DATA piggybacks, 0 if disabled */
+	private volatile int digestSlots = 0;
+	/** Distinct sources piggybacked since from the last session message. */
+	private final Set<String> digestCovered = ConcurrentHashMap.newKeySet();
+
 	/** Components */
 	protected StateTable states;
 	protected DataCache cache;
 	protected RequestRepairPool pool;
+	protected FecCodec fec;
+	protected SnapshotExchange snapshots;
+	/** Lifecycle tracing; null if disabled */
+	private volatile Tracer tracer;
+	/** Raw datagram capture; null if disabled */
+	private volatile DatagramCapture capture;
 	private ReceiverDispatcher rd;
 
+	/** Delivery queue settings, applied to the cache on joining a group */
+	private int deliveryCapacity = DataCache.DEFAULT_CAPACITY;
+	private DataCache.Overflow deliveryOverflow = DataCache.DEFAULT_OVERFLOW;
+	private boolean deliveryCoalesce = false;
+	/** FEC settings, 0 if disabled */
+	private int fecK = 0;
+	private int fecM = 0;
+	/** Receive pipeline stage counts, 0 if disabled; applied on joining a group */
+	private int pipelineDecoders = 0;
+	private int pipelineDispatchers = 0;
+	private volatile boolean delivering = true;
+
 	/**
 	 * Constructs a multicast socket and
 	 * binds it to the specified port on the local host machine.
@@ -70,8 +120,15 @@ public class ReliableMulticastSocket extends MulticastSocket
 		initLogger();
 	}
 
-	private void initLogger()
+	private static boolean loggerReady = false;
+
+	/**
+	 * Assign the file handler once per process, however many sockets are created.
+	 */
+	private static synchronized void initLogger()
 	{
+		if (loggerReady) return;
+		loggerReady = true;
 		// Assigning handler to logger
 		Handler handler;
 		Formatter simpleFormatter;
@@ -117,14 +174,15 @@ public class ReliableMulticastSocket extends MulticastSocket
 	/**
 	 * Task to multicast SESSION messages.
 	 */
-	private class SessionSendTask extends TimerTask
+	private class SessionSendTask implements Runnable
 	{
 		@Override
 		public void run()
 		{
+			if (group == null) return;   // Left meanwhile
 			Message session = new Message(sequencer, getFrom(), Type.SESSION,
 					gson.toJson(new Message.SessionBody(
-							LocalTime.now().toString(), states.getViewingPage())).getBytes());
+							LocalTime.now().toString(), clockNanos(), states.getViewingPage())).getBytes());
 			byte[] out = gson.toJson(session).getBytes();
 			DatagramPacket p = new DatagramPacket(out, out.length, getGroup(), getLocalPort());
 			try {
@@ -138,17 +196,58 @@ public class ReliableMulticastSocket extends MulticastSocket
 			if (!isFirstSession) updateSessionRate();
 			isFirstSession = false;
 			// Schedule next
-			sessionSender.schedule(new SessionSendTask(), sessionRate * 1000L);
+			if (group != null) {
+				sessionSender = SrmEngine.getInstance().timers().schedule(
+						new SessionSendTask(), sessionRate, TimeUnit.SECONDS);
+			}
 		}
 	}
 
+	/**
+	 * Returns the wall clock in nanoseconds since the epoch, at the resolution the platform offers.
+	 */
+	protected static long epochNanos() {
+		Instant now = Instant.now();
+		return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+	}
+
+	/**
+	 * Returns the clock SESSION timestamps are taken and compared with, in nanoseconds since the epoch;
+	 * the wall clock, unless replaying a capture.
+	 */
+	protected long clockNanos() {
+		return epochNanos();
+	}
+
+	/**
+	 * Seed the randomization of request, repair and snapshot timers, so that a run can be reproduced.
+	 */
+	public void setTimerSeed(long seed) {
+		timerRandom = new Random(seed);
+	}
+
+	/**
+	 * Returns the next random factor of a timer, in [0, 1).
+	 */
+	protected double timerRandom() {
+		return timerRandom.nextDouble();
+	}
+
 	/**
 	 * Reset bandwidth counters, then adjust the session rate.
 	 */
 	private void updateSessionRate() {
 		double ratio = ((double) sessionBW.getAndSet(0)) / aggregBW.getAndSet(0);
 		long sessionRateTemp = (long) (20 * sessionRate / ratio);
-		sessionRate = Math.min(Math.max(sessionRateTemp, SESSION_RATE_MIN), SESSION_RATE_MAX);
+		// Back off further if DATA traffic alone has told every other source's state since the last SESSION
+		Set<String> sources = new HashSet<>(states.keySet());
+		sources.remove(getFrom());
+		boolean covered = digestSlots > 0 && !sources.isEmpty() && digestCovered.containsAll(sources);
+		digestCovered.clear();
+		if (covered) {
+			sessionRate = Math.min(Math.max(sessionRateTemp, 2 * sessionRate), SESSION_RATE_PIGGYBACKED_MAX);
+		}
+		else sessionRate = Math.min(Math.max(sessionRateTemp, SESSION_RATE_MIN), SESSION_RATE_MAX);
 		logger.info("Session rate gets updated to per "+sessionRate+" seconds.");
 	}
 
@@ -156,45 +255,289 @@ public class ReliableMulticastSocket extends MulticastSocket
 	public synchronized void joinGroup(SocketAddress mcastaddr, NetworkInterface netIf) throws IOException
 	{
 		super.joinGroup(mcastaddr, netIf);
+		startStack(((InetSocketAddress) mcastaddr).getAddress());
+	}
+
+	/**
+	 * Set up all components and start SESSION sending and receiving for a group.
+	 */
+	protected synchronized void startStack(InetAddress group)
+	{
 		sequencer = 1;
-		sessionSender = new Timer();
 		sessionRate = SESSION_RATE_MIN;
 		aggregBW.set(0);
 		sessionBW.set(0);
-		states = new StateTable(1);
-		cache = new DataCache(5);
+		states = new StateTable(1, membershipListeners);
+		states.setThresholds(suspectPhi, leavePhi);
+		states.setDeviationFactor(deviationFactor);
+		cache = new DataCache(5, deliveryCapacity, deliveryOverflow, deliveryCoalesce);
+		cache.setDelivering(delivering);
 		pool = new RequestRepairPool(this);
-		rd = new ReceiverDispatcher(this);
-		group = ((InetSocketAddress) mcastaddr).getAddress();
+		fec = new FecCodec(this);
+		fec.setEncoding(fecK, fecM);
+		snapshots = new SnapshotExchange(this);
+		rd = new ReceiverDispatcher(this, pipelineDecoders, pipelineDispatchers);
+		this.group = group;
 		// Session sending routines, starts once group is specified
-		sessionSender.schedule(new SessionSendTask(), 0);
-		rd.start();   // Receiving at background
+		sessionSender = SrmEngine.getInstance().timers().schedule(new SessionSendTask(), 0, TimeUnit.SECONDS);
+		membershipChecker = SrmEngine.getInstance().timers().scheduleAtFixedRate(
+				() -> states.checkMembers(this::prune),
+				MEMBERSHIP_CHECK_PERIOD, MEMBERSHIP_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+		SrmEngine.getInstance().newThread("srm-receive", rd).start();   // Receiving at background
 	}
 
 	@Override
 	public void leaveGroup(SocketAddress mcastaddr, NetworkInterface netIf) throws IOException {
 		super.leaveGroup(mcastaddr, netIf);
+		shutdownStack();
+	}
+
+	/**
+	 * Stop SESSION sending, pending timers and delivery of this socket's stack.
+	 */
+	private synchronized void shutdownStack()
+	{
+		if (group == null) return;
 		group = null;
-		sessionSender.cancel();
-		sessionSender.purge();
+		sessionSender.cancel(false);
+		membershipChecker.cancel(false);
 		pool.close();
-		cache.getUpdater().cancel();
-		cache.getUpdater().purge();
+		snapshots.close();
+		cache.closeDelivery();
+		cache.close();
+		Tracer t = tracer;
+		tracer = null;
+		if (t != null) t.close();
+		DatagramCapture c = capture;
+		capture = null;
+		if (c != null) c.close();
+	}
+
+	@Override
+	public void close() {
+		shutdownStack();
+		super.close();
+	}
+
+	/**
+	 * Bound the queue of payloads waiting for receive.
+	 * By default DEFAULT_CAPACITY payloads, dropping the oldest once full.
+	 *
+	 * @param capacity the maximum number of unconsumed payloads
+	 * @param overflow what to do once the queue is full
+	 * @param coalesce keep only the latest unconsumed payload from each source,
+	 *                 suited to beacon-style traffic where older states are superseded
+	 */
+	public void setDeliveryQueue(int capacity, DataCache.Overflow overflow, boolean coalesce) {
+		if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive.");
+		deliveryCapacity = capacity;
+		deliveryOverflow = overflow;
+		deliveryCoalesce = coalesce;
+		if (cache != null) cache.configureDelivery(capacity, overflow, coalesce);
+	}
+
+	/**
+	 * Multicast m XOR parities after every k DATA sent, so that receivers rebuild
+	 * up to m losses per block without a request/repair round trip.
+	 * Receivers decode parities regardless of their own setting.
+	 *
+	 * @param k DATA per block
+	 * @param m parities per block, at most k; both 0 disables encoding
+	 */
+	public void setFec(int k, int m) {
+		if (k < 0 || m < 0 || (k == 0) != (m == 0) || m > k) {
+			throw new IllegalArgumentException("Expect 0 < m <= k, or both 0.");
+		}
+		fecK = k;
+		fecM = m;
+		if (fec != null) fec.setEncoding(k, m);
+	}
+
+	/**
+	 * Receive through a pipeline of threads instead of a single one:
+	 * a reader, decoders parsing in parallel, and dispatchers each owning a share of the sources.
+	 * Takes effect on the next joinGroup.
+	 *
+	 * @param decoders parsing threads; both 0 reads, decodes and dispatches on one thread
+	 * @param dispatchers dispatching threads, order of messages from one source being kept
+	 */
+	public void setReceivePipeline(int decoders, int dispatchers) {
+		if (decoders < 0 || dispatchers < 0 || (decoders == 0) != (dispatchers == 0)) {
+			throw new IllegalArgumentException("Expect both positive, or both 0.");
+		}
+		pipelineDecoders = decoders;
+		pipelineDispatchers = dispatchers;
+	}
+
+	/**
+	 * Keep a snapshot of the application state for late joiners, replacing the previous one.
+	 * It is tagged with the DATA delivered so far, so it should reflect every payload received until now.
+	 * Only one datagram is sent per answer, so the snapshot has to fit in one with its envelope.
+	 */
+	public void publishSnapshot(byte[] state) throws SocketException {
+		if (snapshots == null) throw new SocketException("Not in a group.");
+		snapshots.publish(state);
+	}
+
+	/**
+	 * Fetch the latest snapshot from the closest member that published one.
+	 * Once it arrives, seqs up to its vector are no longer requested, and DATA after it is.
+	 * Payloads received before the snapshot may still be delivered, hence have to be applied idempotently.
+	 *
+	 * @return completed with the snapshot; cancelled if no member answers after a few attempts
+	 */
+	public CompletableFuture<SnapshotExchange.Snapshot> requestSnapshot() throws SocketException {
+		if (snapshots == null) throw new SocketException("Not in a group.");
+		return snapshots.request();
+	}
+
+	/**
+	 * Returns FEC decoding counters; null before joining a group.
+	 */
+	public FecCodec.FecStats getFecStats() {
+		return fec != null ? fec.getStats() : null;
+	}
+
+	/**
+	 * Trace the lifecycle of every message into a binary file, see TraceAnalyzer.
+	 *
+	 * @param path file to append records to; null stops tracing
+	 */
+	public void setTracing(String path) throws IOException {
+		Tracer old = tracer;
+		tracer = path != null ? new Tracer(path) : null;
+		if (old != null) old.close();
+	}
+
+	/**
+	 * Capture every datagram sent or received into a binary file, see CaptureReplay.
+	 *
+	 * @param path file to append datagrams to; null stops capturing
+	 */
+	public void setCapture(String path) throws IOException {
+		DatagramCapture old = capture;
+		capture = path != null ? new DatagramCapture(path, getFrom()) : null;
+		if (old != null) old.close();
+	}
+
+	protected void trace(Tracer.Event event, String whose_seq, String peer) {
+		Tracer t = tracer;
+		if (t != null) t.record(event, whose_seq, peer);
+	}
+
+	protected void trace(Tracer.Event event, String whose, long seq, String peer) {
+		Tracer t = tracer;
+		if (t != null) t.record(event, whose, seq, peer);
+	}
+
+	/**
+	 * Drop everything held for a departed source.
+	 */
+	private void prune(String from) {
+		pool.cancelFrom(from);
+		cache.purge(from);
+	}
+
+	/**
+	 * Subscribe to JOIN, SUSPECT, ALIVE and LEAVE of other members of the group.
+	 * Members are detected from their SESSION and DATA only, i.e. without any application beacon.
+	 */
+	public void addMembershipListener(MembershipListener listener) {
+		membershipListeners.add(listener);
+	}
+
+	public void removeMembershipListener(MembershipListener listener) {
+		membershipListeners.remove(listener);
+	}
+
+	/**
+	 * Set the phi accrual thresholds; phi grows by about 0.43 per mean heartbeat interval of silence.
+	 *
+	 * @param suspectPhi suspicion level to publish SUSPECT at
+	 * @param leavePhi suspicion level to publish LEAVE at and prune the member
+	 */
+	public void setFailureDetection(double suspectPhi, double leavePhi) {
+		if (suspectPhi <= 0 || leavePhi < suspectPhi) {
+			throw new IllegalArgumentException("Expect 0 < suspectPhi <= leavePhi.");
+		}
+		this.suspectPhi = suspectPhi;
+		this.leavePhi = leavePhi;
+		if (states != null) states.setThresholds(suspectPhi, leavePhi);
+	}
+
+	/**
+	 * Tune the request/repair timers, which scale with the smoothed distance to the data source
+	 * plus k mean deviations of its samples.
+	 *
+	 * @param k how many mean deviations are added to the smoothed distance
+	 * @param minTimerMillis lower bound of any request/repair timer, in milliseconds
+	 */
+	public void setDistanceEstimation(double k, long minTimerMillis) {
+		if (k < 0 || minTimerMillis < 0) throw new IllegalArgumentException("Expect non-negative values.");
+		deviationFactor = k;
+		minTimer = minTimerMillis;
+		if (states != null) states.setDeviationFactor(k);
+	}
+
+	/**
+	 * Returns other members currently considered alive; empty before joining a group.
+	 */
+	public Set<String> getMembers() {
+		return states != null ? states.getMembers() : Set.of();
+	}
+
+	/**
+	 * Piggyback a rotating slice of this member's states on each DATA,
+	 * so receivers detect losses from any DATA instead of waiting for SESSION.
+	 * Older receivers ignore the extra field.
+	 *
+	 * @param slots number of (source, highest seq) pairs per DATA; 0 disables it
+	 */
+	public void setPiggyback(int slots) {
+		if (slots < 0) throw new IllegalArgumentException("Slots must not be negative.");
+		digestSlots = slots;
+	}
+
+	/**
+	 * Whether DATA payloads are queued for receive at all.
+	 * A socket that only sends still caches payloads to serve repairs.
+	 */
+	public void setDelivering(boolean delivering) {
+		this.delivering = delivering;
+		if (cache != null) cache.setDelivering(delivering);
+	}
+
+	/**
+	 * Returns overflow counters of the delivery queue; null before joining a group.
+	 */
+	public DataCache.DeliveryStats getDeliveryStats() {
+		return cache != null ? cache.getDeliveryStats() : null;
 	}
 
 	// send DATA only
 	@Override
 	public synchronized void send(DatagramPacket p) throws IOException
 	{
-		Message data = new Message(sequencer, getFrom(), Type.DATA, p.getData());
+		Map<String, Long> digest = states != null ? states.nextDigest(digestSlots, getFrom()) : null;
+		if (digest != null) digestCovered.addAll(digest.keySet());
+		Message data = new Message(sequencer, getFrom(), Type.DATA, p.getData(), digest);
 		byte[] out = gson.toJson(data).getBytes();
 		DatagramPacket _p = new DatagramPacket(out, out.length,
 				p.getAddress(), p.getPort());
 		logger.info("Multicasting DATA.");
 		_send(_p);
+		trace(Tracer.Event.SENT, data.getFrom(), sequencer, null);
 		if (!getOption(StandardSocketOptions.IP_MULTICAST_LOOP)) {
 			states.update(data.getFrom(), sequencer, null);
 		}
+		if (fec != null) {
+			for (Message.ParityBody body : fec.onSent(sequencer, p.getData())) {
+				byte[] pOut = gson.toJson(new Message(sequencer, getFrom(), Type.PARITY,
+						gson.toJson(body).getBytes())).getBytes();
+				_send(new DatagramPacket(pOut, pOut.length, p.getAddress(), p.getPort()));
+				logger.info("Multicasting PARITY.");
+			}
+		}
 		sequencer++;
 	}
 
@@ -209,13 +552,50 @@ public class ReliableMulticastSocket extends MulticastSocket
 		}
 	}
 
+	/**
+	 * Receive the next DATA payload, waiting up to the given time.
+	 * Unlike receive, the caller's interruption is propagated.
+	 *
+	 * @return payload; null if none is delivered in time
+	 */
+	public byte[] poll(long timeout, TimeUnit unit) throws InterruptedException {
+		return cache.poll(timeout, unit);
+	}
+
+	/**
+	 * Receive the next DATA payload without parking the calling thread,
+	 * e.g. to multiplex several groups via CompletableFuture::anyOf.
+	 * The future is cancelled if this socket leaves the group before delivery,
+	 * or at once if it already left and nothing is left to receive.
+	 */
+	public CompletableFuture<byte[]> receiveAsync() {
+		return cache.consumeAsync();
+	}
+
+	/**
+	 * Returns a publisher of DATA payloads, signalling on the common pool.
+	 * Subscribers complete once this socket leaves the group.
+	 */
+	public DeliveryPublisher publisher() {
+		return publisher(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Returns a publisher of DATA payloads, signalling on the given executor.
+	 */
+	public DeliveryPublisher publisher(Executor executor) {
+		return new DeliveryPublisher(cache, executor);
+	}
+
 	/**
 	 * Delegate multicasting a datagram packet unreliably, and
 	 * measures bandwidth cost at the same time.
 	 */
 	protected void _send(DatagramPacket p) throws IOException {
-		super.send(p);
+		transportSend(p);
 		aggregBW.addAndGet(p.getLength());
+		DatagramCapture c = capture;
+		if (c != null) c.record(DatagramCapture.SENT, p);
 	}
 
 	/**
@@ -223,8 +603,22 @@ public class ReliableMulticastSocket extends MulticastSocket
 	 * measures bandwidth cost at the same time.
 	 */
 	protected void _receive(DatagramPacket p) throws IOException {
-		super.receive(p);
+		transportReceive(p);
 		aggregBW.addAndGet(p.getLength());
+		DatagramCapture c = capture;
+		if (c != null) c.record(DatagramCapture.RECEIVED, p);
+	}
+
+	/**
+	 * The underlying transport, overridden to replay captures.
+	 * Receiving throws EOFException once there is nothing left to receive, which stops the ReceiverDispatcher quietly.
+	 */
+	protected void transportSend(DatagramPacket p) throws IOException {
+		super.send(p);
+	}
+
+	protected void transportReceive(DatagramPacket p) throws IOException {
+		super.receive(p);
 	}
 
 	/** Disabled. */
@@ -4,45 +4,152 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.time.LocalTime;
 import java.time.temporal.ChronoUnit;
-import java.util.AbstractMap.SimpleEntry;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
 
 /**
  * A container of request/repair back-off timers.
+ * Each pending timer is a state machine, SCHEDULED -> FIRED -> (SCHEDULED again for requests) or CANCELLED,
+ * moved by compare-and-set, so that the dispatcher never waits for a timer thread.
  */
 public class RequestRepairPool
 {
+	private static final int SCHEDULED = 0;
+	private static final int FIRED = 1;
+	private static final int CANCELLED = 2;
+
 	private final ReliableMulticastSocket socket;
 
-	/** A size-adaptive thread pool */
-	private final ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newCachedThreadPool();
+	/** A size-adaptive thread pool, shared by all stacks of the process */
+	private final ExecutorService pool = SrmEngine.getInstance().workers();
 
-	protected final Map<String, SimpleEntry<RequestTask, Future<?>>> requests = new HashMap<>();
-	protected final Map<String, SimpleEntry<RepairTask, Future<?>>> repairs = new HashMap<>();
+	private final Registry<RequestTask> requests = new Registry<>();
+	private final Registry<RepairTask> repairs = new Registry<>();
 
 	public RequestRepairPool(ReliableMulticastSocket socket) {
 		this.socket = socket;
 	}
 
-	private double C1 = 2;
-	private double C2 = 2;
-	private Double ave_dup_req = null;
-	private Double ave_req_delay = null;
+	/** Bounds of the adaptive request timer parameters */
+	private static final double C1_MIN = 0.5, C1_MAX = 2;
+	private static final double C2_MIN = 1, C2_MAX = 8;
+
+	private volatile double C1 = 2;
+	private volatile double C2 = 2;
+	private volatile Double ave_dup_req = null;
+	private volatile Double ave_req_delay = null;
 
-	protected class RequestTask implements Runnable
+	/**
+	 * Pending timers by source, then by seq.
+	 */
+	private static class Registry<T>
 	{
-		/** Turned on before stopping the thread via interrupt */
-		boolean doneFlag = false;
-		boolean startedFlag = false;
-		LocalTime round_start;
-		long expire;   // in milliseconds
-		long i = 0;
-		final DatagramPacket p;
+		private final Map<String, Map<Long, T>> bySource = new ConcurrentHashMap<>();
+
+		T get(String whose, long seq) {
+			Map<Long, T> timers = bySource.get(whose);
+			return timers != null ? timers.get(seq) : null;
+		}
+
+		/**
+		 * @return the timer already registered; null if task got registered
+		 */
+		T putIfAbsent(String whose, long seq, T task) {
+			return bySource.computeIfAbsent(whose, x -> new ConcurrentHashMap<>()).putIfAbsent(seq, task);
+		}
+
+		void remove(String whose, long seq, T task) {
+			Map<Long, T> timers = bySource.get(whose);
+			if (timers != null) timers.remove(seq, task);
+		}
+
+		Map<Long, T> ofSource(String whose) {
+			return bySource.getOrDefault(whose, Map.of());
+		}
+
+		Collection<T> removeSource(String whose) {
+			Map<Long, T> timers = bySource.remove(whose);
+			return timers != null ? timers.values() : List.of();
+		}
+
+		Collection<T> removeAll() {
+			List<T> all = new ArrayList<>();
+			for (String whose : new ArrayList<>(bySource.keySet())) all.addAll(removeSource(whose));
+			return all;
+		}
+	}
+
+	/**
+	 * Base of a timer parked on a worker thread until its deadline, or until woken to re-check its state.
+	 */
+	private abstract static class Timer implements Runnable
+	{
+		final AtomicInteger state = new AtomicInteger(SCHEDULED);
 		final String whose;
+		final long seq;
+		final String whose_seq;
+		final DatagramPacket p;
+		/** The worker parked on this timer; null before it starts */
+		volatile Thread runner;
+
+		Timer(DatagramPacket p, String whose, long seq) {
+			this.p = p;
+			this.whose = whose;
+			this.seq = seq;
+			this.whose_seq = whose+"-"+seq;
+		}
+
+		/**
+		 * Park until the deadline, or until woken with wakeUp returning true.
+		 *
+		 * @return whether the deadline was reached
+		 */
+		boolean await(long deadline, BooleanSupplier wakeUp)
+		{
+			long left;
+			while ((left = deadline - System.nanoTime()) > 0) {
+				if (wakeUp.getAsBoolean()) return false;
+				LockSupport.parkNanos(this, left);
+			}
+			return !wakeUp.getAsBoolean();
+		}
+
+		void wake() {
+			Thread t = runner;
+			if (t != null) LockSupport.unpark(t);
+		}
+
+		/**
+		 * Move to CANCELLED unless already there.
+		 *
+		 * @return whether this call cancelled it
+		 */
+		boolean cancel()
+		{
+			int s;
+			do {
+				s = state.get();
+				if (s == CANCELLED) return false;
+			}
+			while (!state.compareAndSet(s, CANCELLED));
+			wake();
+			return true;
+		}
+	}
+
+	protected class RequestTask extends Timer
+	{
+		volatile LocalTime round_start;
+		volatile long expire;   // in milliseconds
+		long i = 0;
 
 		static final double AveDups = 1;
 		static final long AveDelay = 1;
@@ -50,172 +157,233 @@ public class RequestRepairPool
 		static final double epsilon = 0.1;
 
 		LocalTime task_start;
-		int req_dup = -1;
-		long min_dist;
-		int n_send = 0;
+		/** Duplicate requests heard in the current round, minus one */
+		final AtomicInteger req_dup = new AtomicInteger(-1);
+		/** Closest distance to the source among requesters in the current round, as double bits */
+		final AtomicLong min_dist = new AtomicLong(Double.doubleToRawLongBits(Double.MAX_VALUE));
+		/** Bumped by each postponement, which restarts the round */
+		final AtomicInteger round = new AtomicInteger(0);
+		volatile int n_send = 0;
 
-		StateTable.State current_state;
-		Long my_dist;
-		public RequestTask(DatagramPacket p, String whose) {
-			this.p = p;
-			this.whose = whose;
+		Double my_dist;
+		public RequestTask(DatagramPacket p, String whose, long seq) {
+			super(p, whose, seq);
 		}
 
 		@Override
 		public void run()
 		{
-			startedFlag = true;
+			runner = Thread.currentThread();
 			task_start = LocalTime.now();
-			while (true) {
+			while (state.get() != CANCELLED) {
 				round_start = LocalTime.now();
-				min_dist = Long.MAX_VALUE;
+				int r = round.get();
+				expire = (long) (Math.pow(2, i++) * (C1 + socket.timerRandom() * C2) * socket.states.timerDistance(whose));
+				if (expire < socket.minTimer) expire = socket.minTimer;
+				long deadline = System.nanoTime() + expire * 1_000_000;
+				if (!await(deadline, () -> state.get() == CANCELLED || round.get() != r)) continue;
+				if (!state.compareAndSet(SCHEDULED, FIRED)) break;
 				try {
-					StateTable.State s = socket.states.get(whose);
-					if (s != null && s.dist() != null) {
-						expire = (long) (Math.pow(2, i++) * (C1 + Math.random() * C2) * s.dist());
-					}
-					else expire = 1000;
-					if (expire < 1000) expire = 1000;
-					//noinspection BusyWait
-					Thread.sleep(expire);
 					socket._send(p);
 					ReliableMulticastSocket.logger.info("Multicasting REQUEST.");
-
-					n_send ++;
-					req_dup ++;
-					// Update ave_dup_req
-					if (ave_dup_req == null) ave_dup_req = (double) req_dup;
-					else ave_dup_req = (1 - alpha) * ave_dup_req + alpha * req_dup;
-					req_dup = -1;
-
-					// After sending a request
-					C1 -= 0.1;
-					// Before each new request timer is set
-					current_state = socket.states.get(whose);
-					my_dist = current_state != null ? current_state.dist() : null;
-					if (my_dist != null && my_dist < min_dist) {
-						C2 -= 0.1;
-					} else if (ave_dup_req >= AveDups) {
-						C1 += 0.1;
-						C2 += 0.5;
-					} else if (ave_dup_req < AveDups - epsilon) {
-						if (ave_req_delay > AveDelay) {
-							C2 -= 0.1;
-						}
-						if (ave_dup_req < 0.25) {
-							C1 -= 0.05;
-						}
-					} else {
-						C1 += 0.05;
-					}
+					socket.trace(Tracer.Event.REQUEST_SENT, whose_seq, null);
 				}
 				catch (IOException e) {
 					e.printStackTrace();
 				}
-				catch (InterruptedException e) {
-					if (doneFlag) {
-						if (n_send > 0) {
-							double req_delay = (double) ChronoUnit.MILLIS.between(task_start, LocalTime.now()) / n_send;
-							// Update ave_req_delay
-							if (ave_req_delay == null) {
-								ave_req_delay = req_delay;
-							} else {
-								ave_req_delay = (1 - alpha) * ave_req_delay + alpha * req_delay;
-							}
-							ReliableMulticastSocket.logger.info("ave_req_delay gets updated to "+ave_req_delay+".");
-							ReliableMulticastSocket.logger.info("ave_dup_req gets updated to "+ave_dup_req+".");
-						}
-						break;
+				n_send ++;
+				int dups = req_dup.getAndSet(-1) + 1;
+				// Update ave_dup_req
+				if (ave_dup_req == null) ave_dup_req = (double) dups;
+				else ave_dup_req = (1 - alpha) * ave_dup_req + alpha * dups;
+
+				// After sending a request
+				C1 -= 0.1;
+				// Before each new request timer is set
+				my_dist = socket.states.distance(whose);
+				if (my_dist != null && my_dist < minDist()) {
+					C2 -= 0.1;
+				} else if (ave_dup_req >= AveDups) {
+					C1 += 0.1;
+					C2 += 0.5;
+				} else if (ave_dup_req < AveDups - epsilon) {
+					if (ave_req_delay != null && ave_req_delay > AveDelay) {
+						C2 -= 0.1;
+					}
+					if (ave_dup_req < 0.25) {
+						C1 -= 0.05;
 					}
+				} else {
+					C1 += 0.05;
+				}
+				// Keep the adaptive parameters in range, or timers collapse to minTimer
+				C1 = Math.min(Math.max(C1, C1_MIN), C1_MAX);
+				C2 = Math.min(Math.max(C2, C2_MIN), C2_MAX);
+				min_dist.set(Double.doubleToRawLongBits(Double.MAX_VALUE));
+				if (!state.compareAndSet(FIRED, SCHEDULED)) break;
+			}
+			if (n_send > 0) {
+				double req_delay = (double) ChronoUnit.MILLIS.between(task_start, LocalTime.now()) / n_send;
+				// Update ave_req_delay
+				if (ave_req_delay == null) {
+					ave_req_delay = req_delay;
+				} else {
+					ave_req_delay = (1 - alpha) * ave_req_delay + alpha * req_delay;
 				}
+				ReliableMulticastSocket.logger.info("ave_req_delay gets updated to "+ave_req_delay+".");
+				ReliableMulticastSocket.logger.info("ave_dup_req gets updated to "+ave_dup_req+".");
 			}
 		}
+
+		double minDist() {
+			return Double.longBitsToDouble(min_dist.get());
+		}
+
+		/**
+		 * Count a duplicate REQUEST heard from another member, with its distance to the source.
+		 */
+		void duplicate(Long distToSrc)
+		{
+			req_dup.incrementAndGet();
+			if (distToSrc == null) return;
+			long bits = Double.doubleToRawLongBits(distToSrc);
+			min_dist.accumulateAndGet(bits, (curr, x) ->
+					Double.longBitsToDouble(x) < Double.longBitsToDouble(curr) ? x : curr);
+		}
 	}
 
-	private class RepairTask implements Runnable
+	private class RepairTask extends Timer
 	{
-		boolean startedFlag = false;
-		final DatagramPacket p;
-		final String whose_seq;
-
 		double D1 = Math.log(socket.states.getViewingPage().size());
 		double D2 = D1;
 
-		public RepairTask(DatagramPacket p, String whose_seq) {
-			this.p = p;
-			this.whose_seq = whose_seq;
+		public RepairTask(DatagramPacket p, String whose, long seq) {
+			super(p, whose, seq);
 		}
 
 		@Override
 		public void run()
 		{
-			startedFlag = true;
-			long expire;   // in milliseconds
-			try {
-				String whose = whose_seq.split("-")[0];
-				StateTable.State s = socket.states.get(whose);
-				if (s != null && s.dist() != null) expire = (long) ((D1 + Math.random() * D2) * s.dist());
-				else expire = 1000;
-				Thread.sleep(expire);
-				socket._send(p);
-				ReliableMulticastSocket.logger.info("Multicasting REPAIR.");
-				repairs.remove(whose_seq);
-			}
-			catch (IOException e) {
-				e.printStackTrace();
-			}
-			catch (InterruptedException ignored) {
+			runner = Thread.currentThread();
+			long expire = (long) ((D1 + socket.timerRandom() * D2) * socket.states.timerDistance(whose));   // in milliseconds
+			long deadline = System.nanoTime() + Math.max(expire, socket.minTimer) * 1_000_000;
+			if (await(deadline, () -> state.get() == CANCELLED) && state.compareAndSet(SCHEDULED, FIRED)) {
+				try {
+					socket._send(p);
+					ReliableMulticastSocket.logger.info("Multicasting REPAIR.");
+					socket.trace(Tracer.Event.REPAIR_SENT, whose_seq, null);
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+				}
+				repairs.remove(whose, seq, this);
 			}
 			// Record repairing time
-			SimpleEntry<byte[], LocalTime> pair = socket.cache.get(whose_seq);
+			DataCache.Entry pair = socket.cache.get(whose, seq);
 			if (pair != null) pair.setValue(LocalTime.now());
 		}
 	}
 
 	/**
-	 * Schedule a request timer.
+	 * Schedule a request timer, unless one is already pending.
 	 */
 	protected void request(String whose_seq)
 	{
-		String whose = whose_seq.split("-")[0];
-		StateTable.State s = socket.states.get(whose);
-		Long distToSrc = s != null ? s.dist() : null;
+		int dash = whose_seq.lastIndexOf('-');
+		String whose = whose_seq.substring(0, dash);
+		long seq = Long.parseLong(whose_seq.substring(dash + 1));
+		Double dist = socket.states.distance(whose);
+		Long distToSrc = dist != null ? Math.round(dist) : null;
 		Message request = new Message(socket.sequencer, socket.getFrom(), Type.REQUEST,
 				ReliableMulticastSocket.gson.toJson(new Message.RequestBody(
 						whose_seq, distToSrc)).getBytes());
 		byte[] out = ReliableMulticastSocket.gson.toJson(request).getBytes();
 		DatagramPacket p = new DatagramPacket(out, out.length, socket.getGroup(), socket.getLocalPort());
 
-		RequestTask task = new RequestTask(p, whose);
-		Future<?> f = pool.submit(task);
-		requests.put(whose_seq, new SimpleEntry<>(task, f));
+		RequestTask task = new RequestTask(p, whose, seq);
+		if (requests.putIfAbsent(whose, seq, task) != null) return;
+		pool.execute(task);
 		ReliableMulticastSocket.logger.info("Request timer <"+whose_seq+"> is up.");
+		socket.trace(Tracer.Event.REQUEST_SCHEDULED, whose_seq, null);
 	}
 
 	/**
-	 * Schedule a repair timer if data payload is found in cache.
+	 * Schedule a repair timer if data payload is found in cache, unless one is already pending.
 	 * Ignore requests for D within 3 * d_S,B time after sending repair or just receiving payload,
 	 * where S is the original source of data D, and B is this node itself.
 	 */
 	protected void repair(String whose_seq)
 	{
-		String whose = whose_seq.split("-")[0];
-		StateTable.State s = socket.states.get(whose);
-		SimpleEntry<byte[], LocalTime> pair = socket.cache.get(whose_seq);
+		int dash = whose_seq.lastIndexOf('-');
+		String whose = whose_seq.substring(0, dash);
+		long seq;
+		try {
+			seq = Long.parseLong(whose_seq.substring(dash + 1));
+		}
+		catch (NumberFormatException e) { return; }
+		DataCache.Entry pair = socket.cache.get(whose, seq);
 		if (pair == null) return;
-		else if (s != null && s.dist() != null &&
-				ChronoUnit.MILLIS.between(pair.getValue(), LocalTime.now()) < 3 * s.dist()) return;
+		else if (socket.states.distance(whose) != null &&
+				ChronoUnit.MILLIS.between(pair.getValue(), LocalTime.now()) < 3 * socket.states.timerDistance(whose)) return;
 
-		Message repair = new Message(socket.sequencer, socket.getFrom(), Type.REPAIR,
-				ReliableMulticastSocket.gson.toJson(new Message.RepairBody(
-						whose_seq, pair.getKey())).getBytes());
-		byte[] out = ReliableMulticastSocket.gson.toJson(repair).getBytes();
+		byte[] out = pair.getRepair(whose_seq, socket.sequencer, socket.getFrom());
 		DatagramPacket p = new DatagramPacket(out, out.length, socket.getGroup(), socket.getLocalPort());
 
-		RepairTask task = new RepairTask(p, whose_seq);
-		Future<?> f = pool.submit(task);
-		repairs.put(whose_seq, new SimpleEntry<>(task, f));
+		RepairTask task = new RepairTask(p, whose, seq);
+		if (repairs.putIfAbsent(whose, seq, task) != null) return;
+		pool.execute(task);
 		ReliableMulticastSocket.logger.info("Repair timer <"+whose_seq+"> is up.");
+		socket.trace(Tracer.Event.REPAIR_SCHEDULED, whose_seq, null);
+	}
+
+	private RequestTask getRequest(String whose_seq)
+	{
+		int dash = whose_seq.lastIndexOf('-');
+		try {
+			return requests.get(whose_seq.substring(0, dash), Long.parseLong(whose_seq.substring(dash + 1)));
+		}
+		catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+
+	private RepairTask getRepair(String whose_seq)
+	{
+		int dash = whose_seq.lastIndexOf('-');
+		try {
+			return repairs.get(whose_seq.substring(0, dash), Long.parseLong(whose_seq.substring(dash + 1)));
+		}
+		catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+
+	protected boolean hasRequest(String whose_seq) {
+		return getRequest(whose_seq) != null;
+	}
+
+	protected boolean hasRepair(String whose_seq) {
+		return getRepair(whose_seq) != null;
+	}
+
+	/**
+	 * @return how many times the pending request has been multicast; 0 if none is pending
+	 */
+	protected int requestsSent(String whose_seq) {
+		RequestTask task = getRequest(whose_seq);
+		return task != null ? task.n_send : 0;
+	}
+
+	/**
+	 * Handle a REQUEST from another member for data this node also misses:
+	 * postpone the pending request timer, then count the duplicate and its distance to the source.
+	 */
+	protected void duplicateRequest(String whose_seq, Long distToSrc)
+	{
+		RequestTask task = getRequest(whose_seq);
+		if (task == null) return;
+		postponeRequest(task);
+		task.duplicate(distToSrc);
 	}
 
 	/**
@@ -223,60 +391,97 @@ public class RequestRepairPool
 	 * Do not postpone for requests that belong to the same iteration of loss recovery,
 	 * where we set this ignore-backoff time to halfway task expiration time.
 	 */
-	protected void postponeRequest(String whose_seq)
+	protected void postponeRequest(String whose_seq) {
+		RequestTask task = getRequest(whose_seq);
+		if (task != null) postponeRequest(task);
+	}
+
+	private void postponeRequest(RequestTask task)
 	{
-		SimpleEntry<RequestTask, Future<?>> pair = requests.get(whose_seq);
-		if (pair == null) return;
-		RequestTask task = pair.getKey();
-		Future<?> f = requests.get(whose_seq).getValue();
-		if (task != null && f != null &&
-				ChronoUnit.MILLIS.between(task.round_start, LocalTime.now()) > task.expire / 2) {
-			f.cancel(true);   // with done set false
-			ReliableMulticastSocket.logger.info("Request timer <"+whose_seq+"> is postponed.");
-		}
+		LocalTime round_start = task.round_start;
+		if (round_start == null || task.state.get() != SCHEDULED ||
+				ChronoUnit.MILLIS.between(round_start, LocalTime.now()) <= task.expire / 2) return;
+		int r = task.round.get();
+		if (!task.round.compareAndSet(r, r + 1)) return;   // Another postponed this round already
+		task.min_dist.set(Double.doubleToRawLongBits(Double.MAX_VALUE));
+		task.wake();
+		ReliableMulticastSocket.logger.info("Request timer <"+task.whose_seq+"> is postponed.");
+		socket.trace(Tracer.Event.REQUEST_POSTPONED, task.whose_seq, null);
 	}
 
 	/**
 	 * Cancel a request timer if it is present.
 	 */
-	protected void cancelRequest(String whose_seq)
+	protected void cancelRequest(String whose_seq) {
+		RequestTask task = getRequest(whose_seq);
+		if (task != null) cancelRequest(task);
+	}
+
+	private void cancelRequest(RequestTask task)
 	{
-		SimpleEntry<RequestTask, Future<?>> pair = requests.get(whose_seq);
-		if (pair == null) return;
-		RequestTask task = pair.getKey();
-		Future<?> f = requests.get(whose_seq).getValue();
-		if (task != null && f != null) {
-			task.doneFlag = true;
-			while (!task.startedFlag) Thread.onSpinWait();
-			f.cancel(true);
-			requests.remove(whose_seq);
-			ReliableMulticastSocket.logger.info("Request timer <"+whose_seq+"> is cancelled.");
+		requests.remove(task.whose, task.seq, task);
+		if (task.cancel()) {
+			ReliableMulticastSocket.logger.info("Request timer <"+task.whose_seq+"> is cancelled.");
+			socket.trace(Tracer.Event.REQUEST_CANCELLED, task.whose_seq, null);
 		}
 	}
 
 	/**
 	 * Cancel a repair timer if it is present.
 	 */
-	protected void cancelRepair(String whose_seq)
+	protected void cancelRepair(String whose_seq) {
+		RepairTask task = getRepair(whose_seq);
+		if (task != null) cancelRepair(task);
+	}
+
+	private void cancelRepair(RepairTask task)
+	{
+		repairs.remove(task.whose, task.seq, task);
+		if (task.state.compareAndSet(SCHEDULED, CANCELLED)) {   // Too late once fired
+			task.wake();
+			ReliableMulticastSocket.logger.info("Repair timer <"+task.whose_seq+"> is cancelled.");
+			socket.trace(Tracer.Event.REPAIR_CANCELLED, task.whose_seq, null);
+		}
+	}
+
+	/**
+	 * @return the lowest seq of a source still being requested; null if none
+	 */
+	protected Long lowestPendingRequest(String whose)
 	{
-		SimpleEntry<RepairTask, Future<?>> pair = repairs.get(whose_seq);
-		if (pair ==  null) return;
-		RepairTask task = pair.getKey();
-		Future<?> f = repairs.get(whose_seq).getValue();
-		if (task != null && f != null) {
-			while (!task.startedFlag) Thread.onSpinWait();
-			f.cancel(true);
-			repairs.remove(whose_seq);
-			ReliableMulticastSocket.logger.info("Repair timer <"+whose_seq+"> is cancelled.");
+		Long lowest = null;
+		for (Long seq : requests.ofSource(whose).keySet()) {
+			if (lowest == null || seq < lowest) lowest = seq;
 		}
+		return lowest;
 	}
 
 	/**
-	 * Initiates an orderly shutdown in which previously submitted tasks are executed,
-	 * but no new tasks will be accepted.
+	 * Cancel the request timers of a source up to a seq, e.g. once a snapshot covers them.
 	 */
-	protected void close() {
-		pool.shutdown();
+	protected void cancelRequestsUpTo(String whose, long seq)
+	{
+		for (RequestTask task : requests.ofSource(whose).values()) {
+			if (task.seq <= seq) cancelRequest(task);
+		}
+	}
+
+	/**
+	 * Cancel every request and repair timer for data from one source, e.g. once it has left.
+	 */
+	protected void cancelFrom(String whose)
+	{
+		for (RequestTask task : requests.removeSource(whose)) cancelRequest(task);
+		for (RepairTask task : repairs.removeSource(whose)) cancelRepair(task);
+	}
+
+	/**
+	 * Stop all timers of this stack. The shared thread pool keeps running.
+	 */
+	protected void close()
+	{
+		for (RequestTask task : requests.removeAll()) task.cancel();
+		for (RepairTask task : repairs.removeAll()) task.cancel();
 	}
 
 }
@@ -0,0 +1,163 @@
+package srm;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Transfer of application state snapshots to late joiners.
+ * A member publishes a snapshot of its state, tagged with the (source, seq) vector of DATA it reflects.
+ * A joiner multicasts SNAPSHOT_REQUEST; members holding a snapshot answer after a random back-off
+ * scaled by their distance to the joiner, so the closest one tends to answer first,
+ * and the others suppress their answer on hearing it.
+ * The joiner then only requests DATA beyond the vector, instead of replaying history through repairs.
+ */
+public class SnapshotExchange
+{
+	/** Period between SNAPSHOT_REQUEST attempts, in milliseconds */
+	private static final long REQUEST_PERIOD = 3000;
+	private static final int MAX_ATTEMPTS = 5;
+
+	/**
+	 * @param vector {from: highest seq reflected}, every earlier seq of the source included
+	 * @param state application state, opaque to the protocol
+	 */
+	public record Snapshot(Map<String, Long> vector, byte[] state) {
+	}
+
+	private final ReliableMulticastSocket socket;
+
+	private volatile Snapshot latest;
+	/** Answers waiting for their back-off, by requester */
+	private final Map<String, ScheduledFuture<?>> answers = new ConcurrentHashMap<>();
+
+	/** Own pending request; guarded by this */
+	private CompletableFuture<Snapshot> pending;
+	private ScheduledFuture<?> requester;
+
+	public SnapshotExchange(ReliableMulticastSocket socket) {
+		this.socket = socket;
+	}
+
+	/**
+	 * Keep a snapshot of the application state to answer joiners with,
+	 * tagged with the DATA delivered so far: the highest seq of each source below any pending request.
+	 */
+	protected void publish(byte[] state)
+	{
+		Map<String, Long> vector = new HashMap<>();
+		socket.states.forEach((from, s) -> {
+			long upTo = s.seq();
+			Long lowest = socket.pool.lowestPendingRequest(from);
+			if (lowest != null) upTo = Math.min(upTo, lowest - 1);
+			vector.put(from, upTo);
+		});
+		latest = new Snapshot(vector, state.clone());
+	}
+
+	/**
+	 * Multicast SNAPSHOT_REQUEST until some member answers, up to MAX_ATTEMPTS times.
+	 *
+	 * @return completed with the first snapshot heard, once its vector is applied;
+	 *         cancelled if no member answers
+	 */
+	protected synchronized CompletableFuture<Snapshot> request()
+	{
+		if (pending != null && !pending.isDone()) return pending;
+		CompletableFuture<Snapshot> f = new CompletableFuture<>();
+		pending = f;
+		int[] attempts = {0};
+		requester = SrmEngine.getInstance().timers().scheduleAtFixedRate(() -> {
+			if (f.isDone()) return;
+			if (attempts[0]++ == MAX_ATTEMPTS) {
+				f.completeExceptionally(new CancellationException("No snapshot received."));
+				return;
+			}
+			send(Type.SNAPSHOT_REQUEST, new Message.SnapshotRequestBody(attempts[0]));
+		}, 0, REQUEST_PERIOD, TimeUnit.MILLISECONDS);
+		f.whenComplete((s, e) -> requester.cancel(false));
+		return f;
+	}
+
+	/**
+	 * Schedule an answer to a joiner, unless already scheduled or nothing is published.
+	 */
+	protected void onRequest(String from)
+	{
+		Snapshot s = latest;
+		if (s == null || answers.containsKey(from)) return;
+		long delay = (long) ((1 + socket.timerRandom()) * socket.states.timerDistance(from));
+		answers.computeIfAbsent(from, x -> SrmEngine.getInstance().timers().schedule(() -> {
+			answers.remove(from);
+			send(Type.SNAPSHOT, new Message.SnapshotBody(from, s.vector(), s.state()));
+			ReliableMulticastSocket.logger.info("Sent snapshot to "+from+".");
+		}, Math.max(delay, socket.minTimer), TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Suppress own answer to the same joiner, and take the snapshot if it was meant for this member.
+	 */
+	protected void onSnapshot(Message.SnapshotBody body)
+	{
+		ScheduledFuture<?> answer = answers.remove(body.requester);
+		if (answer != null) answer.cancel(false);
+		if (!socket.getFrom().equals(body.requester)) return;
+
+		CompletableFuture<Snapshot> f;
+		synchronized (this) {
+			f = pending;
+		}
+		if (f == null || f.isDone()) return;
+		Map<String, Long> vector = body.vector != null ? body.vector : Map.of();
+		applyVector(vector);
+		f.complete(new Snapshot(vector, body.state));
+	}
+
+	/**
+	 * Treat every seq up to the vector as delivered, and request the DATA after it that is already known of.
+	 */
+	private void applyVector(Map<String, Long> vector)
+	{
+		for (var v : vector.entrySet()) {
+			String from = v.getKey();
+			if (from == null || v.getValue() == null || from.equals(socket.getFrom())
+					|| socket.states.isDeparted(from)) continue;
+			long upTo = v.getValue();
+			socket.pool.cancelRequestsUpTo(from, upTo);
+			Long known = socket.states.update(from, upTo, null);
+			if (known == null) continue;
+			for (long seq = upTo + 1; seq <= known; seq++) {
+				if (socket.cache.get(from, seq) != null) continue;
+				socket.trace(Tracer.Event.GAP_DETECTED, from, seq, null);
+				socket.pool.request(from+"-"+seq);
+			}
+		}
+	}
+
+	private void send(Type type, Object body)
+	{
+		byte[] out = ReliableMulticastSocket.gson.toJson(new Message(socket.sequencer, socket.getFrom(), type,
+				ReliableMulticastSocket.gson.toJson(body).getBytes())).getBytes();
+		try {
+			socket._send(new DatagramPacket(out, out.length, socket.getGroup(), socket.getLocalPort()));
+		}
+		catch (IOException e) {
+			ReliableMulticastSocket.logger.log(Level.WARNING, "Cannot send "+type.name()+".", e);
+		}
+	}
+
+	protected synchronized void close()
+	{
+		answers.values().forEach(f -> f.cancel(false));
+		answers.clear();
+		if (pending != null) pending.cancel(false);
+	}
+
+}
@@ -0,0 +1,78 @@
+package srm;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue for exactly one producer thread and one consumer thread,
+ * over an array allocated once. Each side only writes its own index, so no lock nor CAS is needed.
+ * Blocking calls spin briefly, then yield, then park for short periods.
+ */
+public class SpscRing<T>
+{
+	private final Object[] slots;
+	private final int mask;
+	/** Next index to read, only written by the consumer */
+	private final AtomicLong head = new AtomicLong(0);
+	/** Next index to write, only written by the producer */
+	private final AtomicLong tail = new AtomicLong(0);
+
+	/**
+	 * @param capacity rounded up to a power of 2
+	 */
+	public SpscRing(int capacity)
+	{
+		if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive.");
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) size <<= 1;
+		slots = new Object[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * @return false if full
+	 */
+	public boolean offer(T item)
+	{
+		long t = tail.get();
+		if (t - head.get() == slots.length) return false;
+		slots[(int) t & mask] = item;
+		tail.lazySet(t + 1);   // Publishes the slot
+		return true;
+	}
+
+	/**
+	 * @return the oldest item; null if empty
+	 */
+	@SuppressWarnings("unchecked")
+	public T poll()
+	{
+		long h = head.get();
+		if (h == tail.get()) return null;
+		int i = (int) h & mask;
+		T item = (T) slots[i];
+		slots[i] = null;
+		head.lazySet(h + 1);   // Frees the slot
+		return item;
+	}
+
+	public void put(T item) throws InterruptedException {
+		for (int idle = 0; !offer(item); idle++) idle(idle);
+	}
+
+	public T take() throws InterruptedException
+	{
+		T item;
+		for (int idle = 0; (item = poll()) == null; idle++) idle(idle);
+		return item;
+	}
+
+	private static void idle(int idle) throws InterruptedException
+	{
+		if (Thread.interrupted()) throw new InterruptedException();
+		if (idle < 100) Thread.onSpinWait();
+		else if (idle < 200) Thread.yield();
+		else LockSupport.parkNanos(50_000);
+	}
+
+}
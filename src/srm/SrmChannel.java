@@ -0,0 +1,154 @@
+package srm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A lightweight handle on the group stack held by SrmEngine.
+ * Channels of the same group share its sequencer, states, cache and timers;
+ * receiving channels compete for the same delivery queue.
+ */
+public class SrmChannel implements Closeable
+{
+	public enum Role
+	{
+		SEND, RECEIVE, BOTH;
+
+		boolean receives() {
+			return this != SEND;
+		}
+	}
+
+	private final SrmEngine engine;
+	private final InetSocketAddress group;
+	private final Role role;
+	private final ReliableMulticastSocket socket;
+	private volatile boolean closed = false;
+
+	protected SrmChannel(SrmEngine engine, InetSocketAddress group, Role role, ReliableMulticastSocket socket) {
+		this.engine = engine;
+		this.group = group;
+		this.role = role;
+		this.socket = socket;
+	}
+
+	/**
+	 * Reliably multicast a payload to the group.
+	 */
+	public void send(byte[] payload) throws IOException {
+		ensureOpen();
+		socket.send(new DatagramPacket(payload, payload.length, group));
+	}
+
+	/**
+	 * Blocks until the next DATA payload is delivered, then sets it as the packet's data.
+	 */
+	public void receive(DatagramPacket p) throws IOException {
+		ensureReceiving();
+		socket.receive(p);
+	}
+
+	/**
+	 * @see ReliableMulticastSocket#poll(long, TimeUnit)
+	 */
+	public byte[] poll(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+		ensureReceiving();
+		return socket.poll(timeout, unit);
+	}
+
+	/**
+	 * @see ReliableMulticastSocket#receiveAsync()
+	 */
+	public CompletableFuture<byte[]> receiveAsync() throws IOException {
+		ensureReceiving();
+		return socket.receiveAsync();
+	}
+
+	/**
+	 * @see ReliableMulticastSocket#publisher(Executor)
+	 */
+	public DeliveryPublisher publisher(Executor executor) throws IOException {
+		ensureReceiving();
+		return socket.publisher(executor);
+	}
+
+	/**
+	 * @see ReliableMulticastSocket#publishSnapshot(byte[])
+	 */
+	public void publishSnapshot(byte[] state) throws IOException {
+		ensureOpen();
+		socket.publishSnapshot(state);
+	}
+
+	/**
+	 * @see ReliableMulticastSocket#requestSnapshot()
+	 */
+	public CompletableFuture<SnapshotExchange.Snapshot> requestSnapshot() throws IOException {
+		ensureReceiving();
+		return socket.requestSnapshot();
+	}
+
+	/**
+	 * @see ReliableMulticastSocket#setDeliveryQueue(int, DataCache.Overflow, boolean)
+	 */
+	public void setDeliveryQueue(int capacity, DataCache.Overflow overflow, boolean coalesce) {
+		socket.setDeliveryQueue(capacity, overflow, coalesce);
+	}
+
+	/**
+	 * @see ReliableMulticastSocket#addMembershipListener(MembershipListener)
+	 */
+	public void addMembershipListener(MembershipListener listener) {
+		socket.addMembershipListener(listener);
+	}
+
+	public void removeMembershipListener(MembershipListener listener) {
+		socket.removeMembershipListener(listener);
+	}
+
+	/**
+	 * @see ReliableMulticastSocket#getMembers()
+	 */
+	public Set<String> getMembers() {
+		return socket.getMembers();
+	}
+
+	public InetSocketAddress getGroup() {
+		return group;
+	}
+
+	public Role getRole() {
+		return role;
+	}
+
+	protected ReliableMulticastSocket getSocket() {
+		return socket;
+	}
+
+	/**
+	 * Release this handle; the group stack is shut down with its last channel.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) return;
+		closed = true;
+		engine.release(this);
+	}
+
+	private void ensureOpen() throws SocketException {
+		if (closed) throw new SocketException("Channel is closed.");
+	}
+
+	private void ensureReceiving() throws SocketException {
+		ensureOpen();
+		if (!role.receives()) throw new SocketException("Channel is opened for sending only.");
+	}
+
+}
@@ -0,0 +1,171 @@
+package srm;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * The process-wide SRM engine.
+ * Owns one protocol stack (transport, states, cache and timers) per multicast group,
+ * shared by every channel opened on that group, so each DATA is received and parsed once.
+ * Also owns the scheduler and worker pool that all stacks run their timers on,
+ * and creates the threads of blocking loops, i.e. receivers of stacks and of the application.
+ *
+ * Those threads and workers are virtual threads with -Dsrm.threads=virtual, when the runtime has them
+ * (Java 21 or later), so that many stacks fit in a few carrier threads; platform threads otherwise.
+ */
+public final class SrmEngine
+{
+	private static final SrmEngine INSTANCE = new SrmEngine();
+
+	/** SESSION sending and cache sweeping of all stacks */
+	private final ScheduledExecutorService timers =
+			Executors.newSingleThreadScheduledExecutor(daemonFactory("srm-timer"));
+	/** How blocking loops and workers are run */
+	public enum ThreadMode
+	{
+		PLATFORM, VIRTUAL
+	}
+
+	private final ThreadMode mode;
+	/** Creates virtual threads; null in PLATFORM mode */
+	private final ThreadFactory virtualFactory;
+	/** Request/repair back-off timers of all stacks */
+	private final ExecutorService workers;
+
+	/** One stack per group address, guarded by this */
+	private final Map<InetSocketAddress, Stack> stacks = new HashMap<>();
+
+	private static class Stack
+	{
+		final ReliableMulticastSocket socket;
+		int channels = 0;
+		int receivers = 0;
+
+		Stack(ReliableMulticastSocket socket) {
+			this.socket = socket;
+		}
+	}
+
+	private SrmEngine()
+	{
+		ThreadFactory factory = null;
+		ExecutorService perTask = null;
+		if ("virtual".equalsIgnoreCase(System.getProperty("srm.threads"))) {
+			// Looked up reflectively, the code base targets Java 17
+			try {
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+				builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "srm-virtual-", 1L);
+				factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+				perTask = (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+						.invoke(null, factory);
+			}
+			catch (ReflectiveOperationException e) {
+				ReliableMulticastSocket.logger.warning("Virtual threads are not available, using platform threads.");
+				factory = null;
+			}
+		}
+		virtualFactory = factory;
+		mode = factory != null ? ThreadMode.VIRTUAL : ThreadMode.PLATFORM;
+		workers = perTask != null ? perTask : Executors.newCachedThreadPool(daemonFactory("srm-worker"));
+	}
+
+	public static SrmEngine getInstance() {
+		return INSTANCE;
+	}
+
+	protected ScheduledExecutorService timers() {
+		return timers;
+	}
+
+	protected ExecutorService workers() {
+		return workers;
+	}
+
+	public ThreadMode getThreadMode() {
+		return mode;
+	}
+
+	/**
+	 * Create a thread for a blocking loop in the current mode, not yet started.
+	 * Platform threads are not daemon, as with new Thread; virtual threads always are.
+	 */
+	public Thread newThread(String name, Runnable task)
+	{
+		if (virtualFactory == null) return new Thread(task, name);
+		Thread t = virtualFactory.newThread(task);
+		t.setName(name);
+		return t;
+	}
+
+	/**
+	 * Open a channel on a group, joining it if this process has not yet.
+	 * The stack delivers DATA only while at least one channel is able to receive.
+	 *
+	 * @param group multicast address and port of the group
+	 * @param role what the caller is going to do on the channel
+	 */
+	public synchronized SrmChannel open(InetSocketAddress group, SrmChannel.Role role) throws IOException
+	{
+		Stack stack = stacks.get(group);
+		if (stack == null) {
+			ReliableMulticastSocket socket = new ReliableMulticastSocket(group.getPort());
+			try {
+				socket.joinGroup(group, null);
+			}
+			catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+			stack = new Stack(socket);
+			stacks.put(group, stack);
+			ReliableMulticastSocket.logger.info("SRM stack for "+group+" is up.");
+		}
+		stack.channels++;
+		if (role.receives()) stack.receivers++;
+		stack.socket.setDelivering(stack.receivers > 0);
+		return new SrmChannel(this, group, role, stack.socket);
+	}
+
+	/**
+	 * Release a channel; the last one on a group tears its stack down.
+	 */
+	protected synchronized void release(SrmChannel channel)
+	{
+		Stack stack = stacks.get(channel.getGroup());
+		if (stack == null || stack.socket != channel.getSocket()) return;
+		stack.channels--;
+		if (channel.getRole().receives()) stack.receivers--;
+		stack.socket.setDelivering(stack.receivers > 0);
+		if (stack.channels > 0) return;
+
+		stacks.remove(channel.getGroup());
+		try {
+			stack.socket.leaveGroup(channel.getGroup(), null);
+		}
+		catch (IOException e) {
+			ReliableMulticastSocket.logger.log(Level.WARNING, "Cannot leave "+channel.getGroup()+".", e);
+		}
+		stack.socket.close();
+		ReliableMulticastSocket.logger.info("SRM stack for "+channel.getGroup()+" is down.");
+	}
+
+	private static ThreadFactory daemonFactory(String prefix)
+	{
+		AtomicInteger count = new AtomicInteger(0);
+		return r -> {
+			Thread t = new Thread(r, prefix+"-"+count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+}
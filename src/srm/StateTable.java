@@ -2,22 +2,30 @@ package srm;
 
 import java.time.LocalTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
  * Tracks states received from each active source (including self).
+ * Also keeps the membership view: a failure detector per source heard from directly,
+ * with departed sources pruned and ignored when others still report them.
  */
 public class StateTable extends ConcurrentHashMap<String, StateTable.State>
 {
 	/**
 	 * @param seq the highest sequence number
 	 * @param t when seq was incremented
-	 * @param dist estimated one-way distance, in milliseconds;
+	 * @param dist the last one-way distance measured from that source's SESSION, in nanoseconds;
 	 *  		   null if distance is unknown, in particular for self state.
-	 *  		   Note that this estimate does not assume synchronized clocks,
-	 * 			   while it does assume that paths are roughly symmetric.
+	 *  		   It includes the clock offset, which cancels out once averaged with
+	 *  		   the distance measured in the other direction, see DistanceEstimator.
 	 */
 	protected record State(long seq, Long dist, LocalTime t) {
 	}
@@ -25,28 +33,183 @@ public class StateTable extends ConcurrentHashMap<String, StateTable.State>
 	/** How recent the currently-viewing page filters states by, in minutes */
 	private final long tView;
 
+	/** Smoothed distance to each source, fed by both-way samples */
+	private final Map<String, DistanceEstimator> distances = new ConcurrentHashMap<>();
+	/** Timers use the smoothed distance plus K mean deviations */
+	private volatile double k = 4;
+	/** Distance assumed by timers before any sample, in milliseconds */
+	protected static final double DEFAULT_DISTANCE = 1000;
+
+	/** Failure detector of each member heard from directly, excluding self */
+	private final Map<String, PhiAccrualDetector> members = new ConcurrentHashMap<>();
+	/** Members currently suspected */
+	private final Set<String> suspected = ConcurrentHashMap.newKeySet();
+	/** Departed members, with when they left in nanoseconds */
+	private final Map<String, Long> departed = new ConcurrentHashMap<>();
+	private final List<MembershipListener> listeners;
+
+	/** Suspicion levels to publish SUSPECT and LEAVE at */
+	private volatile double suspectPhi = 3;
+	private volatile double leavePhi = 8;
+	/** Assumed heartbeat interval of a new member, in milliseconds */
+	private static final double INITIAL_INTERVAL = 1000;
+
 	public StateTable(long tView) {
+		this(tView, new CopyOnWriteArrayList<>());
+	}
+
+	public StateTable(long tView, List<MembershipListener> listeners) {
 		this.tView = tView;
+		this.listeners = listeners;
+	}
+
+	protected void setDeviationFactor(double k) {
+		this.k = k;
+	}
+
+	/**
+	 * Feed a distance sample of one source, in nanoseconds.
+	 */
+	protected void sampleDistance(String from, long sampleNanos) {
+		DistanceEstimator d = distances.putIfAbsent(from, new DistanceEstimator(sampleNanos));
+		if (d != null) d.update(sampleNanos);
+	}
+
+	/**
+	 * Returns the smoothed one-way distance to a source, in milliseconds; null if no sample yet.
+	 */
+	protected Double distance(String from) {
+		DistanceEstimator d = distances.get(from);
+		return d != null ? d.mean() : null;
+	}
+
+	/**
+	 * Returns the distance that request/repair timers scale with, in milliseconds,
+	 * i.e. the smoothed distance plus k mean deviations; DEFAULT_DISTANCE if no sample yet.
+	 */
+	protected double timerDistance(String from) {
+		DistanceEstimator d = distances.get(from);
+		return d != null ? d.bound(k) : DEFAULT_DISTANCE;
+	}
+
+	protected void setThresholds(double suspectPhi, double leavePhi) {
+		this.suspectPhi = suspectPhi;
+		this.leavePhi = leavePhi;
+	}
+
+	/**
+	 * Record an arrival from a member itself, i.e. its SESSION or DATA.
+	 *
+	 * @param session whether it is a SESSION, the only arrivals sampled by the failure detector
+	 */
+	protected void heard(String from, boolean session)
+	{
+		PhiAccrualDetector d = members.get(from);
+		if (d != null) {
+			if (session) d.heartbeat();
+			else d.alive();
+			if (suspected.remove(from)) publish(MembershipListener.Kind.ALIVE, from);
+			return;
+		}
+		if (members.putIfAbsent(from, new PhiAccrualDetector(INITIAL_INTERVAL)) == null) {
+			departed.remove(from);
+			publish(MembershipListener.Kind.JOIN, from);
+		}
+	}
+
+	/**
+	 * Whether a source has left, so that reports from others about it are ignored.
+	 */
+	protected boolean isDeparted(String from) {
+		return departed.containsKey(from);
+	}
+
+	/**
+	 * Returns members currently considered alive, suspected ones included.
+	 */
+	public Set<String> getMembers() {
+		return Set.copyOf(members.keySet());
+	}
+
+	/**
+	 * Evaluate every member's failure detector, publishing changes.
+	 * Departed members are removed from states, then handed to prune for the other tables.
+	 */
+	protected void checkMembers(Consumer<String> prune)
+	{
+		for (var e : members.entrySet()) {
+			String from = e.getKey();
+			double phi = e.getValue().phi();
+			if (phi >= leavePhi) {
+				members.remove(from);
+				suspected.remove(from);
+				departed.put(from, System.nanoTime());
+				remove(from);
+				distances.remove(from);
+				prune.accept(from);
+				publish(MembershipListener.Kind.LEAVE, from);
+			}
+			else if (phi >= suspectPhi && suspected.add(from)) {
+				publish(MembershipListener.Kind.SUSPECT, from);
+			}
+		}
+		// Forget departures once no one could still be reporting them
+		long expiry = System.nanoTime() - 2 * tView * 60_000_000_000L;
+		departed.values().removeIf(t -> t < expiry);
+	}
+
+	private void publish(MembershipListener.Kind kind, String member)
+	{
+		ReliableMulticastSocket.logger.info("Member "+member+": "+kind.name()+".");
+		for (MembershipListener l : listeners) l.onMembership(kind, member);
 	}
 
 	/**
 	 * Returns the currently-viewing page on states.
 	 *
-	 * @return {from: [seq, dist]}
+	 * @return {from: [seq, dist in milliseconds, dist in nanoseconds]}
 	 */
 	protected Map<String, Long[]> getViewingPage() {
 		return entrySet().stream()
 				.filter(c -> ChronoUnit.MINUTES.between(
 						c.getValue().t, LocalTime.now()) <= tView)
-				.collect(Collectors.toMap(Map.Entry::getKey,
-						c -> new Long[]{c.getValue().seq, c.getValue().dist}));
+				.collect(Collectors.toMap(Map.Entry::getKey, c -> {
+					Long dist = c.getValue().dist;
+					return new Long[]{c.getValue().seq, dist != null ? dist / 1_000_000 : null, dist};
+				}));
+	}
+
+	/** Where the next digest slice starts, in the sorted key order */
+	private int digestCursor = 0;
+
+	/**
+	 * Returns the next rotating slice of states to piggyback on DATA,
+	 * excluding the given source, i.e. self.
+	 *
+	 * @param slots maximum number of sources in the slice
+	 * @return {from: seq}; null if nothing to tell
+	 */
+	protected synchronized Map<String, Long> nextDigest(int slots, String except)
+	{
+		List<String> keys = new ArrayList<>(keySet());
+		keys.remove(except);
+		if (keys.isEmpty() || slots <= 0) return null;
+		keys.sort(null);
+		Map<String, Long> digest = new HashMap<>();
+		for (int i = 0; i < Math.min(slots, keys.size()); i++) {
+			String from = keys.get((digestCursor + i) % keys.size());
+			State s = get(from);
+			if (s != null) digest.put(from, s.seq);
+		}
+		digestCursor = (digestCursor + slots) % keys.size();
+		return digest;
 	}
 
 	/**
 	 * Thread-safe, update the state of one active source.
 	 *
 	 * @param seq update if either absent or greater
-	 * @param dist new one-way distance, in milliseconds; won't update if null
+	 * @param dist new one-way distance, in nanoseconds; won't update if null
 	 * @return old seq associated with from; null if absent
 	 */
 	public Long update(String from, long seq, Long dist)
@@ -0,0 +1,140 @@
+package srm;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Offline reader of trace files written by Tracer.
+ * Rebuilds the timeline of every (source, seq) and reports loss recovery latency,
+ * i.e. from the gap being detected to the payload being delivered, with who repaired what.
+ *
+ * Usage: java srm.TraceAnalyzer [-v] trace-file...
+ *  -v prints every timeline that involved a loss
+ */
+public class TraceAnalyzer
+{
+	private record Entry(long nanos, Tracer.Event event, int peer) {
+	}
+
+	private final Map<Integer, String> names = new HashMap<>();
+	/** Timelines by ${whose}-${seq}, over source ids */
+	private final Map<Integer, Map<Long, List<Entry>>> timelines = new HashMap<>();
+	private long lost = 0;
+
+	public void read(String path) throws IOException
+	{
+		// Ids are local to each file
+		Map<Integer, String> local = new HashMap<>();
+		Map<Integer, Integer> remap = new HashMap<>();
+		List<long[]> events = new ArrayList<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+			while (true) {
+				int kind;
+				try {
+					kind = in.readByte();
+				}
+				catch (EOFException e) { break; }
+				switch (kind) {
+				case 'N' -> local.put(in.readInt(), in.readUTF());
+				case 'E' -> events.add(new long[]{in.readLong(), in.readByte(), in.readInt(), in.readLong(), in.readInt()});
+				case 'L' -> lost += in.readLong();
+				default -> throw new IOException("Corrupted trace "+path+".");
+				}
+			}
+		}
+		// Merge names across files, since the same source gets different ids
+		for (var e : local.entrySet()) {
+			int global = names.entrySet().stream().filter(n -> n.getValue().equals(e.getValue()))
+					.map(Map.Entry::getKey).findFirst().orElse(names.size() + 1);
+			names.put(global, e.getValue());
+			remap.put(e.getKey(), global);
+		}
+		remap.put(0, 0);
+		for (long[] e : events) {
+			int source = remap.getOrDefault((int) e[2], 0);
+			int peer = remap.getOrDefault((int) e[4], 0);
+			timelines.computeIfAbsent(source, x -> new HashMap<>())
+					.computeIfAbsent(e[3], x -> new ArrayList<>())
+					.add(new Entry(e[0], Tracer.Event.values()[(int) e[1]], peer));
+		}
+	}
+
+	public void report(boolean verbose)
+	{
+		List<Double> latencies = new ArrayList<>();
+		Map<String, Integer> repairers = new TreeMap<>();
+		Map<Tracer.Event, Integer> counts = new TreeMap<>();
+		int unrecovered = 0;
+
+		for (var source : timelines.entrySet()) {
+			for (var seq : source.getValue().entrySet()) {
+				List<Entry> timeline = seq.getValue();
+				timeline.sort((a, b) -> Long.compare(a.nanos, b.nanos));
+				Long gap = null, delivered = null;
+				for (Entry e : timeline) {
+					counts.merge(e.event, 1, Integer::sum);
+					switch (e.event) {
+					case GAP_DETECTED -> { if (gap == null) gap = e.nanos; }
+					case DELIVERED -> { if (delivered == null) delivered = e.nanos; }
+					case REPAIR_RECEIVED -> repairers.merge(names.getOrDefault(e.peer, "?"), 1, Integer::sum);
+					default -> { }
+					}
+				}
+				if (gap == null) continue;
+				if (delivered != null && delivered >= gap) latencies.add((delivered - gap) / 1e6);
+				else unrecovered++;
+				if (verbose) {
+					System.out.println(names.getOrDefault(source.getKey(), "?")+"-"+seq.getKey()+":");
+					for (Entry e : timeline) {
+						System.out.printf("  %+10.3f ms  %-17s %s%n", (e.nanos - gap) / 1e6, e.event,
+								e.peer != 0 ? names.getOrDefault(e.peer, "?") : "");
+					}
+				}
+			}
+		}
+
+		System.out.println("Events:");
+		counts.forEach((k, v) -> System.out.printf("  %-17s %d%n", k, v));
+		if (lost > 0) System.out.println("  (overwritten before flush: "+lost+")");
+		System.out.println("Losses: "+(latencies.size() + unrecovered)+", unrecovered: "+unrecovered);
+		if (!latencies.isEmpty()) {
+			Collections.sort(latencies);
+			System.out.printf("Recovery latency (ms): p50 %.3f, p90 %.3f, p99 %.3f, max %.3f%n",
+					percentile(latencies, 50), percentile(latencies, 90),
+					percentile(latencies, 99), latencies.get(latencies.size() - 1));
+		}
+		if (!repairers.isEmpty()) {
+			System.out.println("Repairs received from:");
+			repairers.forEach((k, v) -> System.out.printf("  %-30s %d%n", k, v));
+		}
+	}
+
+	/**
+	 * Nearest-rank percentile of a sorted list.
+	 */
+	private static double percentile(List<Double> sorted, double p) {
+		int rank = (int) Math.ceil(p / 100 * sorted.size());
+		return sorted.get(Math.max(rank - 1, 0));
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		TraceAnalyzer analyzer = new TraceAnalyzer();
+		boolean verbose = false;
+		for (String arg : args) {
+			if (arg.equals("-v")) verbose = true;
+			else analyzer.read(arg);
+		}
+		analyzer.report(verbose);
+	}
+
+}
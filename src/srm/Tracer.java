@@ -0,0 +1,170 @@
+package srm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+
+/**
+ * Opt-in lifecycle tracing of messages, per (source, seq).
+ * Events are written as fixed-size records into a lock-free in-memory ring,
+ * which is flushed periodically to a binary file for TraceAnalyzer to read.
+ *
+ * File format, big-endian, as a sequence of entries:
+ *  - 'N', int id, UTF name: defines a source id
+ *  - 'E', long nanos, byte event, int source id, long seq, int peer id: one event
+ *  - 'L', long count: records overwritten before they could be flushed
+ */
+public class Tracer
+{
+	public enum Event
+	{
+		SENT, RECEIVED, GAP_DETECTED,
+		REQUEST_SCHEDULED, REQUEST_POSTPONED, REQUEST_SENT, REQUEST_CANCELLED,
+		REPAIR_SCHEDULED, REPAIR_SENT, REPAIR_CANCELLED, REPAIR_RECEIVED,
+		FEC_RECOVERED, DELIVERED
+	}
+
+	/** Records in the ring, a power of 2 */
+	private static final int CAPACITY = 1 << 16;
+	private static final int MASK = CAPACITY - 1;
+	private static final long FLUSH_PERIOD = 1000;   // in milliseconds
+	/** Source ids are packed in 24 bits */
+	private static final int ID_MASK = 0xFFFFFF;
+
+	/** Per record: epoch nanoseconds, seq, and event << 48 | source << 24 | peer */
+	private final long[] times = new long[CAPACITY];
+	private final long[] seqs = new long[CAPACITY];
+	private final long[] packed = new long[CAPACITY];
+	/** Index of the record each slot holds, -1 while being written */
+	private final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+	private final AtomicLong next = new AtomicLong(0);
+	/** Only touched by the flushing thread */
+	private long flushed = 0;
+
+	private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+	private final AtomicInteger nextId = new AtomicInteger(1);   // 0 stands for none
+	private final Map<Integer, String> names = new ConcurrentHashMap<>();
+	private int idsWritten = 0;
+
+	private final DataOutputStream out;
+	private final ScheduledFuture<?> flusher;
+
+	public Tracer(String path) throws IOException
+	{
+		for (int i = 0; i < CAPACITY; i++) published.set(i, -1);
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path, true)));
+		flusher = SrmEngine.getInstance().timers().scheduleAtFixedRate(
+				this::flush, FLUSH_PERIOD, FLUSH_PERIOD, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Record an event on data ${whose}-${seq}.
+	 *
+	 * @param peer who sent or was sent the message causing the event; nullable
+	 */
+	protected void record(Event event, String whose_seq, String peer)
+	{
+		int dash = whose_seq.lastIndexOf('-');
+		try {
+			record(event, whose_seq.substring(0, dash), Long.parseLong(whose_seq.substring(dash + 1)), peer);
+		}
+		catch (NumberFormatException | StringIndexOutOfBoundsException ignored) {
+		}
+	}
+
+	protected void record(Event event, String whose, long seq, String peer)
+	{
+		long i = next.getAndIncrement();
+		int slot = (int) (i & MASK);
+		published.set(slot, -1);
+		times[slot] = ReliableMulticastSocket.epochNanos();
+		seqs[slot] = seq;
+		packed[slot] = (long) event.ordinal() << 48 | (long) id(whose) << 24 | id(peer);
+		published.set(slot, i);
+	}
+
+	private int id(String name)
+	{
+		if (name == null) return 0;
+		Integer id = ids.get(name);
+		if (id != null) return id;
+		return ids.computeIfAbsent(name, x -> {
+			int nid = nextId.getAndIncrement() & ID_MASK;
+			names.put(nid, x);
+			return nid;
+		});
+	}
+
+	/**
+	 * Write out every record published since the last flush.
+	 */
+	protected synchronized void flush()
+	{
+		try {
+			int known = nextId.get();
+			for (; idsWritten + 1 < known; idsWritten++) {
+				String name = names.get(idsWritten + 1);
+				if (name == null) break;   // Being assigned
+				out.writeByte('N');
+				out.writeInt(idsWritten + 1);
+				out.writeUTF(name);
+			}
+			long end = next.get();
+			long lost = 0;
+			if (end - flushed > CAPACITY) {
+				lost += end - CAPACITY - flushed;
+				flushed = end - CAPACITY;
+			}
+			for (; flushed < end; flushed++) {
+				int slot = (int) (flushed & MASK);
+				long index = published.get(slot);
+				if (index == -1 || index < flushed) break;   // Still being written
+				if (index > flushed) {   // Lapped by writers
+					lost++;
+					continue;
+				}
+				long t = times[slot], seq = seqs[slot], p = packed[slot];
+				if (published.get(slot) != flushed) {   // Overwritten while reading
+					lost++;
+					continue;
+				}
+				out.writeByte('E');
+				out.writeLong(t);
+				out.writeByte((int) (p >>> 48));
+				out.writeInt((int) (p >>> 24) & ID_MASK);
+				out.writeLong(seq);
+				out.writeInt((int) p & ID_MASK);
+			}
+			if (lost > 0) {
+				out.writeByte('L');
+				out.writeLong(lost);
+			}
+			out.flush();
+		}
+		catch (IOException e) {
+			ReliableMulticastSocket.logger.log(Level.WARNING, "Cannot flush the trace.", e);
+		}
+	}
+
+	protected synchronized void close()
+	{
+		flusher.cancel(false);
+		flush();
+		try {
+			out.close();
+		}
+		catch (IOException e) {
+			ReliableMulticastSocket.logger.log(Level.WARNING, "Cannot close the trace.", e);
+		}
+	}
+
+}